@@ -1,6 +1,9 @@
 package arcs.api;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 
 public class Collection extends Handle {
   private final CollectionStore collectionStore;
@@ -28,8 +31,11 @@ public class Collection extends Handle {
         PortableJson update = jsonParser.emptyObject();
         if (details.hasKey("add")) update.put("added", details.getArray("add"));
         if (details.hasKey("remove")) update.put("removed", details.getArray("remove"));
+        // Coalesced updates from several originators carry no originatorId.
         update.put(
-            "originator", Objects.equals(details.getString("originatorId"), this.particleId));
+            "originator",
+            details.hasKey("originatorId")
+                && Objects.equals(details.getString("originatorId"), this.particleId));
         // TODO: Should return promise?
         particle.onHandleUpdate(this, update);
         break;
@@ -50,6 +56,7 @@ public class Collection extends Handle {
     return collectionStore.get(id);
   }
 
+  /** See {@link CollectionStore#toList()}; the result must not be modified. */
   public PortablePromise<PortableJson> toList() {
     if (!canRead) {
       throw new AssertionError("Handle not readable");
@@ -57,6 +64,39 @@ public class Collection extends Handle {
     return collectionStore.toList();
   }
 
+  public PortablePromise<PortableJson> toList(int pageSize, String continuationToken) {
+    if (!canRead) {
+      throw new AssertionError("Handle not readable");
+    }
+    return collectionStore.toList(pageSize, continuationToken);
+  }
+
+  public PortablePromise<Integer> forEach(int pageSize, Consumer<PortableJson> consumer) {
+    if (!canRead) {
+      throw new AssertionError("Handle not readable");
+    }
+    return collectionStore.forEach(pageSize, consumer);
+  }
+
+  /** Indexes the collection on {@code field}; see {@link CollectionStore#addIndex}. */
+  public void addIndex(String field) {
+    collectionStore.addIndex(field);
+  }
+
+  public PortablePromise<PortableJson> query(String field, String value) {
+    if (!canRead) {
+      throw new AssertionError("Handle not readable");
+    }
+    return collectionStore.query(field, value);
+  }
+
+  public PortablePromise<PortableJson> queryPrefix(String field, String prefix) {
+    if (!canRead) {
+      throw new AssertionError("Handle not readable");
+    }
+    return collectionStore.queryPrefix(field, prefix);
+  }
+
   public void store(PortableJson entity) {
     if (!canWrite) {
       throw new AssertionError("Handle not writeable");
@@ -66,6 +106,41 @@ public class Collection extends Handle {
     collectionStore.store(entity, keys, particleId);
   }
 
+  /** Stores every entity of the {@code entities} array in one batch. */
+  public void storeAll(PortableJson entities) {
+    if (!canWrite) {
+      throw new AssertionError("Handle not writeable");
+    }
+    String[] keys = new String[entities.getLength()];
+    for (int i = 0; i < keys.length; ++i) {
+      createIdForEntity(entities.getObject(i));
+      keys[i] = generateKey();
+    }
+    collectionStore.storeAll(entities, keys, particleId);
+  }
+
+  /** Removes every entity of the {@code entities} array in one batch. */
+  public void removeAll(PortableJson entities) {
+    if (!canWrite) {
+      throw new AssertionError("Handle not writeable");
+    }
+    List<String> ids = new ArrayList<>(entities.getLength());
+    for (int i = 0; i < entities.getLength(); ++i) {
+      ids.add(entities.getObject(i).getString("id"));
+    }
+    collectionStore.removeAll(ids, particleId);
+  }
+
+  /** See {@link CollectionStore#setWriteBehind}; applies to every handle on the same store. */
+  public void setWriteBehind(int maxBatchSize) {
+    collectionStore.setWriteBehind(maxBatchSize);
+  }
+
+  /** Resolves once every write made so far through this store has reached the host. */
+  public PortablePromise<Void> flush() {
+    return collectionStore.flush();
+  }
+
   public void clear() {
     if (!canWrite) {
       throw new AssertionError("Handle not writeable");
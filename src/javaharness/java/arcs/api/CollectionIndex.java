@@ -0,0 +1,103 @@
+package arcs.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Secondary index of the entities in a {@link CollectionProxy} by the value of one string-valued
+ * schema field (Text or URL).
+ *
+ * <p>Values are kept in a sorted map, so an equality lookup is O(log n) and a prefix lookup is
+ * O(log n + k) for k matches. Entities without a value for the field are not indexed.
+ */
+class CollectionIndex {
+  final String field;
+  private final TreeMap<String, Set<String>> idsByValue = new TreeMap<>();
+  // The value each indexed entity was indexed under, so re-adds and removes need no payload.
+  private final Map<String, String> valueById = new HashMap<>();
+
+  CollectionIndex(String field) {
+    this.field = field;
+  }
+
+  /** Whether the schema field can be indexed, i.e. it holds a string. */
+  static boolean isIndexable(Schema.Field field) {
+    if (field == null || !field.isPrimitive()) {
+      return false;
+    }
+    String type = ((Schema.PrimitiveField) field).type;
+    return type.equals("Text") || type.equals("URL");
+  }
+
+  /** Indexes {@code entity}, replacing whatever an entity with the same id was indexed under. */
+  void add(PortableJson entity) {
+    String id = entity.getString("id");
+    remove(id);
+    String value = valueOf(entity, field);
+    if (value == null) {
+      return;
+    }
+    Set<String> ids = idsByValue.get(value);
+    if (ids == null) {
+      ids = new LinkedHashSet<>();
+      idsByValue.put(value, ids);
+    }
+    ids.add(id);
+    valueById.put(id, value);
+  }
+
+  void remove(String id) {
+    String value = valueById.remove(id);
+    if (value == null) {
+      return;
+    }
+    Set<String> ids = idsByValue.get(value);
+    ids.remove(id);
+    if (ids.isEmpty()) {
+      idsByValue.remove(value);
+    }
+  }
+
+  void clear() {
+    idsByValue.clear();
+    valueById.clear();
+  }
+
+  /** Ids of the entities whose field equals {@code value}. */
+  List<String> equalTo(String value) {
+    Set<String> ids = idsByValue.get(value);
+    return ids == null ? new ArrayList<>() : new ArrayList<>(ids);
+  }
+
+  /** Ids of the entities whose field starts with {@code prefix}, ordered by field value. */
+  List<String> withPrefix(String prefix) {
+    List<String> result = new ArrayList<>();
+    for (Map.Entry<String, Set<String>> entry : idsByValue.tailMap(prefix).entrySet()) {
+      if (!entry.getKey().startsWith(prefix)) {
+        break;
+      }
+      result.addAll(entry.getValue());
+    }
+    return result;
+  }
+
+  /** Returns the value of {@code field} in {@code entity}'s raw data, or null if it has none. */
+  static String valueOf(PortableJson entity, String field) {
+    PortableJson rawData = entity.hasKey("rawData") ? entity.getObject("rawData") : null;
+    if (rawData == null || !rawData.hasKey(field)) {
+      return null;
+    }
+    return rawData.getString(field);
+  }
+
+  /** Whether {@code entity} matches a lookup, by equality or by prefix. */
+  static boolean matches(PortableJson entity, String field, String value, boolean prefix) {
+    String actual = valueOf(entity, field);
+    return actual != null && (prefix ? actual.startsWith(value) : actual.equals(value));
+  }
+}
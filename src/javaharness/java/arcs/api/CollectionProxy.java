@@ -1,22 +1,59 @@
 package arcs.api;
 
 import arcs.crdt.CRDTCollection;
+import arcs.crdt.CollectionBatch;
 import arcs.crdt.CollectionOperation;
-import arcs.crdt.Referenceable;
 import arcs.crdt.VersionMap;
 import arcs.crdt.VersionedValue;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Set;
 import java.util.function.Consumer;
 
 public class CollectionProxy extends StorageProxy implements CollectionStore {
-  CRDTCollection<ModelEntry> model;
+  static final int DEFAULT_GET_CACHE_SIZE = 64;
+  static final String PAGE_VALUES = "values";
+  static final String PAGE_CONTINUATION_TOKEN = "continuationToken";
+
+  CRDTCollection<EntityRecord> model;
+  // The result of the last thisModelToList() call, or null if the model changed since. toList()
+  // and sync events hand it out as is, so it is never modified: a change drops it and the next
+  // read builds a new one. Readers must not modify it either.
+  private PortableJson listSnapshot;
+  private long listSnapshotBuilds;
+  // Secondary indexes by field name, kept in step with the model.
+  private final Map<String, CollectionIndex> indexes = new HashMap<>();
+  // Entities fetched by get() while not synchronized, least recently used first.
+  private final Map<String, PortableJson> getCache =
+      new LinkedHashMap<String, PortableJson>(16, 0.75f, /* accessOrder= */ true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PortableJson> eldest) {
+          return size() > DEFAULT_GET_CACHE_SIZE;
+        }
+      };
+  // Bumped whenever cached entities may be stale, so a fetch that was in flight at the time is
+  // not cached.
+  private int getCacheEpoch;
+  private long getCacheHits;
+  // Write-behind: stores and removes wait in writeBuffer until the current task ends or the batch
+  // is full. 0 disables buffering.
+  private final CollectionWriteBuffer writeBuffer = new CollectionWriteBuffer();
+  private int writeBehindBatchSize;
+  private boolean flushScheduled;
+  private long writeBatchesSent;
+  // Write messages sent to the host, numbered from 1, and the highest number up to which all were
+  // acknowledged.
+  private long writesSent;
+  private long writesAcknowledged;
+  private final Set<Long> acknowledgedOutOfOrder = new HashSet<>();
+  private final List<DurabilityWaiter> durabilityWaiters = new ArrayList<>();
+  // Ids of entities created (not just updated) by the updates awaiting coalesceUpdates.
+  private final Set<String> createdSinceCoalesce = new HashSet<>();
 
   public CollectionProxy(
       String id,
@@ -24,25 +61,30 @@ public class CollectionProxy extends StorageProxy implements CollectionStore {
       PECInnerPort port,
       String name,
       PortableJsonParser jsonParser,
-      PortablePromiseFactory promiseFactory) {
-    super(id, type, port, name, jsonParser, promiseFactory);
+      PortablePromiseFactory promiseFactory,
+      StorageProxyScheduler scheduler) {
+    super(id, type, port, name, jsonParser, promiseFactory, scheduler);
   }
 
   @Override
-  public PortableJson getModelForSync() {
+  public synchronized PortableJson getModelForSync() {
     return thisModelToList();
   }
 
   @Override
-  public boolean synchronizeModel(Integer version, PortableJson model) {
+  public synchronized boolean synchronizeModel(Integer version, PortableJson model) {
     this.version = version;
-    List<VersionedValue<ModelEntry>> values = new ArrayList<>();
+    List<VersionedValue<EntityRecord>> values = new ArrayList<>();
     for (int i = 0; i < model.getLength(); ++i) {
-      ModelEntry entry = ModelEntry.fromJson(model.getObject(i));
-      String key = entry.keys.iterator().next();
+      EntityRecord entry = EntityRecord.fromJson(model.getObject(i));
+      String key = entry.firstKey();
       values.add(new VersionedValue<>(entry, VersionMap.of(key, version)));
     }
     this.model = new CRDTCollection<>(values, VersionMap.of("", version));
+    listSnapshot = null;
+    for (CollectionIndex index : indexes.values()) {
+      rebuild(index);
+    }
     return true;
   }
 
@@ -50,42 +92,65 @@ public class CollectionProxy extends StorageProxy implements CollectionStore {
   public PortableJson processUpdate(PortableJson update, boolean apply) {
     if (syncState == SyncState.FULL) {
       // If we're synchronized, then any updates we sent have already been applied/notified.
-      for (Map.Entry<Handle, Particle> observer : observers.entrySet()) {
-        if (Objects.equals(update.getString("originatorId"), observer.getKey().particleId)) {
-          return null;
-        }
+      if (isObserverParticle(update.getString("originatorId"))) {
+        return null;
       }
     }
     PortableJson added = jsonParser.emptyArray();
     PortableJson removed = jsonParser.emptyArray();
     if (update.hasKey("add")) {
-      for (int i = 0; i < update.getArray("add").getLength(); ++i) {
-        PortableJson add = update.getArray("add").getObject(i);
-        boolean effective = add.getBool("effective");
+      PortableJson adds = update.getArray("add");
+      CollectionBatch<EntityRecord> batch = apply ? new CollectionBatch<>(adds.getLength()) : null;
+      for (int i = 0; i < adds.getLength(); ++i) {
+        PortableJson add = adds.getObject(i);
         PortableJson value = add.getObject("value");
-        if ((apply
-                && model.applyOperation(
-                    createAddOperation(value, add.getArray(ModelEntry.KEYS).asStringArray())))
-            || (!apply && effective)) {
+        if (apply) {
+          List<String> keys = add.getArray(EntityRecord.KEYS).asStringArray();
+          batch.addNext(new EntityRecord(value.getString("id"), value, keys), keys.get(0));
+        } else if (add.getBool("effective")) {
           added.put(added.getLength(), value);
         }
       }
+      if (apply) {
+        // Coalescing needs to know which adds created their entity; see coalesceUpdates.
+        boolean[] creates = null;
+        if (!coalescedUpdateObservers.isEmpty()) {
+          creates = new boolean[batch.size()];
+          for (int i = 0; i < batch.size(); ++i) {
+            creates[i] = model.getData().get(batch.get(i).id) == null;
+          }
+        }
+        applyBatch(batch);
+        for (int i = 0; i < batch.size(); ++i) {
+          if (batch.isAccepted(i)) {
+            added.put(added.getLength(), batch.get(i).value);
+            if (creates != null && creates[i]) {
+              createdSinceCoalesce.add(batch.get(i).id);
+            }
+          }
+        }
+      }
     } else if (update.hasKey("remove")) {
-      for (int i = 0; i < update.getArray("remove").getLength(); ++i) {
-        PortableJson remove = update.getArray("remove").getObject(i);
-        VersionedValue<ModelEntry> vv =
+      PortableJson removes = update.getArray("remove");
+      CollectionBatch<EntityRecord> batch =
+          apply ? new CollectionBatch<>(removes.getLength()) : null;
+      for (int i = 0; i < removes.getLength(); ++i) {
+        PortableJson remove = removes.getObject(i);
+        VersionedValue<EntityRecord> vv =
             model.getData().get(remove.getObject("value").getString("id"));
-        ModelEntry entry = vv.value;
-        boolean effective = remove.getBool("effective");
-        if (((apply
-                && model.applyOperation(
-                    new CollectionOperation<>(
-                        CollectionOperation.Type.REMOVE,
-                        entry,
-                        vv.version,
-                        remove.getObject(ModelEntry.KEYS).getString(0))))
-            || (!apply && effective))) {
-          removed.put(removed.getLength(), entry.value.value);
+        EntityRecord entry = vv.value;
+        if (apply) {
+          batch.remove(entry, remove.getObject(EntityRecord.KEYS).getString(0), vv.version);
+        } else if (remove.getBool("effective")) {
+          removed.put(removed.getLength(), entry.value);
+        }
+      }
+      if (apply) {
+        applyBatch(batch);
+        for (int i = 0; i < batch.size(); ++i) {
+          if (batch.isAccepted(i)) {
+            removed.put(removed.getLength(), batch.get(i).value);
+          }
         }
       }
     } else {
@@ -106,43 +171,157 @@ public class CollectionProxy extends StorageProxy implements CollectionStore {
     return null;
   }
 
+  /**
+   * Merges the add/remove deltas into one. An entity created and then removed within the updates
+   * cancels out, but one that existed before them is reported as removed even if they updated it
+   * first; one removed and re-added is reported in both lists.
+   */
+  @Override
+  PortableJson coalesceUpdates(List<PortableJson> handleUpdates) {
+    Set<String> created = new HashSet<>(createdSinceCoalesce);
+    createdSinceCoalesce.clear();
+    if (handleUpdates.size() == 1) {
+      return handleUpdates.get(0);
+    }
+    // Net change per entity id, in first-seen order.
+    Map<String, CoalescedEntry> entries = new LinkedHashMap<>();
+    for (PortableJson update : handleUpdates) {
+      if (update.hasKey("add")) {
+        PortableJson adds = update.getArray("add");
+        for (int i = 0; i < adds.getLength(); ++i) {
+          PortableJson value = adds.getObject(i);
+          CoalescedEntry entry = entries.get(value.getString("id"));
+          if (entry == null) {
+            entries.put(value.getString("id"), new CoalescedEntry(null, value));
+          } else {
+            entry.added = value;
+          }
+        }
+      }
+      if (update.hasKey("remove")) {
+        PortableJson removes = update.getArray("remove");
+        for (int i = 0; i < removes.getLength(); ++i) {
+          PortableJson value = removes.getObject(i);
+          String id = value.getString("id");
+          CoalescedEntry entry = entries.get(id);
+          if (entry == null) {
+            entries.put(id, new CoalescedEntry(value, null));
+          } else if (entry.removed == null && created.contains(id)) {
+            // Created and then removed: nothing to report.
+            entries.remove(id);
+          } else if (entry.removed == null) {
+            // Updated and then removed: the particle saw the entity before, so report it gone.
+            entry.removed = entry.added;
+            entry.added = null;
+          } else {
+            entry.added = null;
+          }
+        }
+      }
+    }
+    PortableJson added = jsonParser.emptyArray();
+    PortableJson removed = jsonParser.emptyArray();
+    for (CoalescedEntry entry : entries.values()) {
+      if (entry.removed != null) {
+        removed.put(removed.getLength(), entry.removed);
+      }
+      if (entry.added != null) {
+        added.put(added.getLength(), entry.added);
+      }
+    }
+    if (added.getLength() == 0 && removed.getLength() == 0) {
+      return null;
+    }
+    PortableJson result = jsonParser.emptyObject();
+    String originator = commonOriginator(handleUpdates);
+    if (originator != null) {
+      result.put("originatorId", originator);
+    }
+    if (added.getLength() > 0) {
+      result.put("add", added);
+    }
+    if (removed.getLength() > 0) {
+      result.put("remove", removed);
+    }
+    return result;
+  }
+
   @Override
-  public PortablePromise<PortableJson> get(String id) {
+  protected synchronized void applyUpdate(PortableJson update) {
+    invalidateGetCache(update);
+    super.applyUpdate(update);
+  }
+
+  @Override
+  public synchronized PortablePromise<PortableJson> get(String id) {
     if (syncState == SyncState.FULL) {
-      return promiseFactory.newPromise(model.getData().getValue(id).value.value);
-    } else {
-      return promiseFactory.newPromise(
-          (resolver, rejecter) ->
-              port.handleToList(
-                  this,
-                  result -> {
-                    PortableJson entity = null;
-                    for (int i = 0; i < result.getLength(); ++i) {
-                      if (id.equals(result.getObject(i).getString("id"))) {
-                        entity = result.getObject(i);
-                        break;
-                      }
+      return promiseFactory.newPromise(model.getData().getValue(id).value);
+    }
+    // Without an update listener nothing would invalidate the cache.
+    PortableJson cached = listenerAttached ? getCache.get(id) : null;
+    if (cached != null) {
+      getCacheHits++;
+      return promiseFactory.newPromise(cached);
+    }
+    flushWrites();
+    int epoch = getCacheEpoch;
+    return promiseFactory.newPromise(
+        (resolver, rejecter) ->
+            port.handleGetById(
+                this,
+                id,
+                entity -> {
+                  synchronized (this) {
+                    if (entity != null && listenerAttached && epoch == getCacheEpoch) {
+                      getCache.put(id, entity);
                     }
-                    resolver.resolve(entity);
-                  }));
+                  }
+                  resolver.resolve(entity);
+                }));
+  }
+
+  /** Number of get() calls answered from the cache of fetched entities. */
+  public synchronized long getCacheHits() {
+    return getCacheHits;
+  }
+
+  /** Drops the cached entities an update adds or removes. */
+  private void invalidateGetCache(PortableJson update) {
+    getCacheEpoch++;
+    if (getCache.isEmpty()) {
+      return;
+    }
+    for (String kind : new String[] {"add", "remove"}) {
+      if (!update.hasKey(kind)) {
+        continue;
+      }
+      PortableJson entries = update.getArray(kind);
+      for (int i = 0; i < entries.getLength(); ++i) {
+        getCache.remove(entries.getObject(i).getObject("value").getString("id"));
+      }
     }
   }
 
   @Override
-  public void store(PortableJson value, String[] keys, String particleId) {
-    PortableJson data =
-        jsonParser
-            .emptyObject()
-            .put("value", value)
-            .put(ModelEntry.KEYS, jsonParser.fromStringArray(Arrays.asList(keys)));
-    port.handleStore(this, new Consumer<PortableJson>() {
-      @Override public void accept(PortableJson unused) {}
-    }, data, particleId);
+  public synchronized void store(PortableJson value, String[] keys, String particleId) {
+    getCache.remove(value.getString("id"));
+    getCacheEpoch++;
+    if (writeBehindBatchSize > 0) {
+      writeBuffer.store(value, keys, particleId);
+      writeBuffered();
+    } else {
+      PortableJson data =
+          jsonParser
+              .emptyObject()
+              .put("value", value)
+              .put(EntityRecord.KEYS, jsonParser.fromStringArray(Arrays.asList(keys)));
+      port.handleStore(this, trackWrite(), data, particleId);
+    }
 
     if (syncState != SyncState.FULL) {
       return;
     }
-    if (!model.applyOperation(createAddOperation(value, Arrays.asList(keys)))) {
+    if (!applyOperation(createAddOperation(value, Arrays.asList(keys)))) {
       return;
     }
     PortableJson update =
@@ -150,38 +329,43 @@ public class CollectionProxy extends StorageProxy implements CollectionStore {
             .emptyObject()
             .put("originatorId", particleId)
             .put("add", jsonParser.emptyArray().put(0, value));
-    notify("update", update, options -> options.notifyUpdate);
+    notify("update", update, updateObservers);
   }
 
   @Override
-  public void clear(String particleId) {
+  public synchronized void clear(String particleId) {
+    getCache.clear();
+    getCacheEpoch++;
+    flushWrites();
     if (syncState != SyncState.FULL) {
-      port.handleRemoveMultiple(this, (unused) -> {}, jsonParser.emptyArray(), particleId);
+      port.handleRemoveMultiple(this, trackWrite(), jsonParser.emptyArray(), particleId);
     }
 
     PortableJson items = jsonParser.emptyArray();
     for (String id : model.getData().keys()) {
       PortableJson item = jsonParser.emptyObject().put("id", id);
-      PortableJson keysJson = jsonParser.emptyArray();
-      model.getData().getValue(id).keys.forEach(key -> keysJson.put(keysJson.getLength(), key));
-      item.put(ModelEntry.KEYS, keysJson);
+      item.put(
+          EntityRecord.KEYS,
+          jsonParser.fromStringArray(Arrays.asList(model.getData().getValue(id).keys())));
       items.put(items.getLength(), item);
     }
-    port.handleRemoveMultiple(this, (unused) -> {}, items, particleId);
+    port.handleRemoveMultiple(this, trackWrite(), items, particleId);
 
-    PortableJson removedItems = jsonParser.emptyArray();
+    CollectionBatch<EntityRecord> batch = new CollectionBatch<>(items.getLength());
     for (int i = 0; i < items.getLength(); ++i) {
       PortableJson item = items.getObject(i);
-      VersionedValue<ModelEntry> vv = model.getData().get(item.getString("id"));
-      ModelEntry entry = vv.value;
-      if (model.applyOperation(
-          new CollectionOperation<>(
-              CollectionOperation.Type.REMOVE,
-              entry,
-              vv.version,
-              item.getObject("keys").getString(0)))) {
+      VersionedValue<EntityRecord> vv = model.getData().get(item.getString("id"));
+      batch.remove(vv.value, item.getObject("keys").getString(0), vv.version);
+    }
+    applyBatch(batch);
+
+    PortableJson removedItems = jsonParser.emptyArray();
+    for (int i = 0; i < batch.size(); ++i) {
+      if (batch.isAccepted(i)) {
+        PortableJson item = items.getObject(i);
         removedItems.put(
-            removedItems.getLength(), item.put("rawData", entry.value.value.getObject("rawData")));
+            removedItems.getLength(),
+            item.put("rawData", batch.get(i).value.getObject("rawData")));
       }
     }
 
@@ -189,36 +373,31 @@ public class CollectionProxy extends StorageProxy implements CollectionStore {
       notify(
           "update",
           jsonParser.emptyObject().put("originatorId", particleId).put("remove", removedItems),
-          options -> options.notifyUpdate);
+          updateObservers);
     }
   }
 
   @Override
-  public void remove(String id, String[] keys, String particleId) {
+  public synchronized void remove(String id, String[] keys, String particleId) {
+    getCache.remove(id);
+    getCacheEpoch++;
     if (syncState != SyncState.FULL) {
-      PortableJson data =
-          jsonParser.emptyObject().put("id", id).put(ModelEntry.KEYS, jsonParser.emptyArray());
-      port.handleRemove(this, (unused) -> {}, data, particleId);
+      sendRemove(id, new String[0], particleId);
       return;
     }
 
-    VersionedValue<ModelEntry> vv = model.getData().get(id);
-    ModelEntry entry = vv.value;
-    PortableJson value = entry.value.value;
+    VersionedValue<EntityRecord> vv = model.getData().get(id);
+    EntityRecord entry = vv.value;
+    PortableJson value = entry.value;
     if (value == null) {
       return;
     }
     if (keys.length == 0) {
-      keys = entry.keys.toArray(new String[0]);
+      keys = entry.keys();
     }
-    PortableJson data =
-        jsonParser
-            .emptyObject()
-            .put("id", id)
-            .put(ModelEntry.KEYS, jsonParser.fromStringArray(Arrays.asList(keys)));
-    port.handleRemove(this, (unused) -> {}, data, particleId);
+    sendRemove(id, keys, particleId);
 
-    if (!model.applyOperation(
+    if (!applyOperation(
         new CollectionOperation<>(
             CollectionOperation.Type.REMOVE, entry, vv.version, /* actor= */ ""))) {
       return;
@@ -228,70 +407,432 @@ public class CollectionProxy extends StorageProxy implements CollectionStore {
             .emptyObject()
             .put("originatorId", particleId)
             .put("remove", jsonParser.emptyArray().put(0, value));
-    notify("update", update, options -> options.notifyUpdate);
+    notify("update", update, updateObservers);
+  }
+
+  @Override
+  public synchronized void storeAll(PortableJson values, String[] keys, String particleId) {
+    if (values.getLength() != keys.length) {
+      throw new IllegalArgumentException("Every entity needs exactly one key");
+    }
+    CollectionBatch<EntityRecord> batch =
+        syncState == SyncState.FULL ? new CollectionBatch<>(keys.length) : null;
+    for (int i = 0; i < keys.length; ++i) {
+      PortableJson value = values.getObject(i);
+      String id = value.getString("id");
+      getCache.remove(id);
+      writeBuffer.store(value, new String[] {keys[i]}, particleId);
+      if (batch != null) {
+        batch.addNext(new EntityRecord(id, value, keys[i]), keys[i]);
+      }
+    }
+    getCacheEpoch++;
+    // Anything already buffered goes out in the same message.
+    flushWrites();
+    if (batch != null) {
+      applyBatchAndNotify(batch, particleId);
+    }
+  }
+
+  @Override
+  public synchronized void removeAll(List<String> ids, String particleId) {
+    CollectionBatch<EntityRecord> batch =
+        syncState == SyncState.FULL ? new CollectionBatch<>(ids.size()) : null;
+    for (String id : ids) {
+      getCache.remove(id);
+      VersionedValue<EntityRecord> vv = batch == null ? null : model.getData().get(id);
+      if (batch == null) {
+        writeBuffer.remove(id, new String[0], particleId);
+      } else if (vv != null) {
+        writeBuffer.remove(id, vv.value.keys(), particleId);
+        batch.remove(vv.value, /* actor= */ "", vv.version);
+      }
+    }
+    getCacheEpoch++;
+    flushWrites();
+    if (batch != null) {
+      applyBatchAndNotify(batch, particleId);
+    }
+  }
+
+  /** Applies a batch of local writes and sends one update for the ones that took effect. */
+  private void applyBatchAndNotify(CollectionBatch<EntityRecord> batch, String particleId) {
+    applyBatch(batch);
+    PortableJson added = jsonParser.emptyArray();
+    PortableJson removed = jsonParser.emptyArray();
+    for (int i = 0; i < batch.size(); ++i) {
+      if (batch.isAccepted(i)) {
+        PortableJson list = batch.isRemove(i) ? removed : added;
+        list.put(list.getLength(), batch.get(i).value);
+      }
+    }
+    if (added.getLength() == 0 && removed.getLength() == 0) {
+      return;
+    }
+    PortableJson update = jsonParser.emptyObject().put("originatorId", particleId);
+    if (added.getLength() > 0) {
+      update.put("add", added);
+    }
+    if (removed.getLength() > 0) {
+      update.put("remove", removed);
+    }
+    notify("update", update, updateObservers);
+  }
+
+  private void sendRemove(String id, String[] keys, String particleId) {
+    if (writeBehindBatchSize > 0) {
+      writeBuffer.remove(id, keys, particleId);
+      writeBuffered();
+      return;
+    }
+    PortableJson data =
+        jsonParser
+            .emptyObject()
+            .put("id", id)
+            .put(EntityRecord.KEYS, jsonParser.fromStringArray(Arrays.asList(keys)));
+    port.handleRemove(this, trackWrite(), data, particleId);
+  }
+
+  @Override
+  public synchronized void setWriteBehind(int maxBatchSize) {
+    if (maxBatchSize < 0) {
+      throw new IllegalArgumentException("Batch size must not be negative: " + maxBatchSize);
+    }
+    writeBehindBatchSize = maxBatchSize;
+    if (maxBatchSize == 0) {
+      flushWrites();
+    }
+  }
+
+  @Override
+  public synchronized PortablePromise<Void> flush() {
+    flushWrites();
+    long write = writesSent;
+    if (write <= writesAcknowledged) {
+      return promiseFactory.newPromise((Void) null);
+    }
+    return promiseFactory.newPromise(
+        (PortablePromise.Resolver<Void> resolver, PortablePromise.Rejector<?> rejecter) ->
+            durabilityWaiters.add(new DurabilityWaiter(write, resolver)));
+  }
+
+  /** Number of HandleWriteBatch messages sent. */
+  public synchronized long writeBatchesSent() {
+    return writeBatchesSent;
+  }
+
+  private void writeBuffered() {
+    if (writeBuffer.buffered() >= writeBehindBatchSize) {
+      flushWrites();
+      return;
+    }
+    if (!flushScheduled) {
+      flushScheduled = true;
+      promiseFactory
+          .newPromise((Void) null)
+          .then(
+              unused -> {
+                synchronized (this) {
+                  flushScheduled = false;
+                  flushWrites();
+                }
+              });
+    }
+  }
+
+  /** Sends the buffered writes, if any, in one message. */
+  private void flushWrites() {
+    if (writeBuffer.isEmpty()) {
+      return;
+    }
+    port.handleWriteBatch(this, trackWrite(), writeBuffer.drain(jsonParser));
+    writeBatchesSent++;
+  }
+
+  /** Numbers a write message and returns the callback that records its acknowledgement. */
+  private Consumer<PortableJson> trackWrite() {
+    long write = ++writesSent;
+    return unused -> acknowledge(write);
+  }
+
+  private void acknowledge(long write) {
+    List<PortablePromise.Resolver<Void>> durable = new ArrayList<>();
+    synchronized (this) {
+      acknowledgedOutOfOrder.add(write);
+      while (acknowledgedOutOfOrder.remove(writesAcknowledged + 1)) {
+        writesAcknowledged++;
+      }
+      for (int i = 0; i < durabilityWaiters.size(); ) {
+        DurabilityWaiter waiter = durabilityWaiters.get(i);
+        if (waiter.write <= writesAcknowledged) {
+          durabilityWaiters.remove(i);
+          durable.add(waiter.resolver);
+        } else {
+          i++;
+        }
+      }
+    }
+    // Outside the lock, since flush() callers continue synchronously on some platforms.
+    for (PortablePromise.Resolver<Void> resolver : durable) {
+      resolver.resolve(null);
+    }
   }
 
   @Override
-  public PortablePromise<PortableJson> toList() {
+  public synchronized PortablePromise<PortableJson> toList() {
     if (syncState == SyncState.FULL) {
       return promiseFactory.newPromise(thisModelToList());
     } else {
+      flushWrites();
       return promiseFactory.newPromise(
           (PortablePromise.Resolver<PortableJson> resolver, PortablePromise.Rejector<?> rejecter) ->
               port.handleToList(this, resolver));
     }
   }
 
-  private CollectionOperation<ModelEntry> createAddOperation(
+  @Override
+  public synchronized void addIndex(String field) {
+    if (indexes.containsKey(field)) {
+      return;
+    }
+    Schema schema = type.getEntitySchema();
+    if (schema == null || !CollectionIndex.isIndexable(schema.getField(field))) {
+      throw new IllegalArgumentException("Cannot index field " + field + " of " + name);
+    }
+    CollectionIndex index = new CollectionIndex(field);
+    rebuild(index);
+    indexes.put(field, index);
+  }
+
+  @Override
+  public PortablePromise<PortableJson> query(String field, String value) {
+    return query(field, value, /* prefix= */ false);
+  }
+
+  @Override
+  public PortablePromise<PortableJson> queryPrefix(String field, String prefix) {
+    return query(field, prefix, /* prefix= */ true);
+  }
+
+  private synchronized PortablePromise<PortableJson> query(
+      String field, String value, boolean prefix) {
+    if (syncState != SyncState.FULL) {
+      flushWrites();
+      return promiseFactory.newPromise(
+          (resolver, rejecter) ->
+              port.handleToList(
+                  this, result -> resolver.resolve(filter(result, field, value, prefix))));
+    }
+    CollectionIndex index = indexes.get(field);
+    if (index == null) {
+      return promiseFactory.newPromise(filter(thisModelToList(), field, value, prefix));
+    }
+    PortableJson result = jsonParser.emptyArray();
+    for (String id : prefix ? index.withPrefix(value) : index.equalTo(value)) {
+      result.put(result.getLength(), model.getData().getValue(id).value);
+    }
+    return promiseFactory.newPromise(result);
+  }
+
+  private PortableJson filter(PortableJson entities, String field, String value, boolean prefix) {
+    PortableJson result = jsonParser.emptyArray();
+    for (int i = 0; i < entities.getLength(); ++i) {
+      PortableJson entity = entities.getObject(i);
+      if (CollectionIndex.matches(entity, field, value, prefix)) {
+        result.put(result.getLength(), entity);
+      }
+    }
+    return result;
+  }
+
+  private void rebuild(CollectionIndex index) {
+    index.clear();
+    if (model == null) {
+      return;
+    }
+    for (String id : model.getData().keys()) {
+      index.add(model.getData().getValue(id).value);
+    }
+  }
+
+  @Override
+  public synchronized PortablePromise<PortableJson> toList(int pageSize, String continuationToken) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+    }
+    if (syncState != SyncState.FULL) {
+      flushWrites();
+      return promiseFactory.newPromise(
+          (PortablePromise.Resolver<PortableJson> resolver, PortablePromise.Rejector<?> rejecter) ->
+              port.handleToListPage(this, pageSize, continuationToken, resolver));
+    }
+    // Locally the token is the offset of the page in the model's list. A token from the host is
+    // "<snapshot>:<offset>"; paging that started there continues here at its offset.
+    PortableJson list = thisModelToList();
+    int from = continuationToken == null ? 0 : parseOffset(continuationToken);
+    int to = Math.min(list.getLength(), from + pageSize);
+    PortableJson values = jsonParser.emptyArray();
+    for (int i = from; i < to; ++i) {
+      values.put(values.getLength(), list.getObject(i));
+    }
+    PortableJson page = jsonParser.emptyObject().put(PAGE_VALUES, values);
+    if (to < list.getLength()) {
+      page.put(PAGE_CONTINUATION_TOKEN, String.valueOf(to));
+    }
+    return promiseFactory.newPromise(page);
+  }
+
+  @Override
+  public PortablePromise<Integer> forEach(int pageSize, Consumer<PortableJson> consumer) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+    }
+    PortableJson list = null;
+    synchronized (this) {
+      if (syncState == SyncState.FULL) {
+        list = thisModelToList();
+      }
+    }
+    if (list != null) {
+      // The model is local, there is nothing to page. The consumer runs without the proxy's lock,
+      // as it may well use other proxies.
+      for (int i = 0; i < list.getLength(); ++i) {
+        consumer.accept(list.getObject(i));
+      }
+      return promiseFactory.newPromise(list.getLength());
+    }
+    return promiseFactory.newPromise(
+        (PortablePromise.Resolver<Integer> resolver, PortablePromise.Rejector<?> rejecter) ->
+            forEachPage(pageSize, null, consumer, 0, resolver));
+  }
+
+  private void forEachPage(
+      int pageSize,
+      String continuationToken,
+      Consumer<PortableJson> consumer,
+      int visited,
+      PortablePromise.Resolver<Integer> resolver) {
+    toList(pageSize, continuationToken)
+        .then(
+            page -> {
+              PortableJson values = page.getArray(PAGE_VALUES);
+              for (int i = 0; i < values.getLength(); ++i) {
+                consumer.accept(values.getObject(i));
+              }
+              int total = visited + values.getLength();
+              if (page.hasKey(PAGE_CONTINUATION_TOKEN)) {
+                forEachPage(
+                    pageSize,
+                    page.getString(PAGE_CONTINUATION_TOKEN),
+                    consumer,
+                    total,
+                    resolver);
+              } else {
+                resolver.resolve(total);
+              }
+            });
+  }
+
+  private static int parseOffset(String continuationToken) {
+    try {
+      int offset =
+          Integer.parseInt(continuationToken.substring(continuationToken.lastIndexOf(':') + 1));
+      if (offset >= 0) {
+        return offset;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below.
+    }
+    throw new IllegalArgumentException("Invalid continuation token " + continuationToken);
+  }
+
+  private CollectionOperation<EntityRecord> createAddOperation(
       PortableJson value, List<String> keys) {
     return new CollectionOperation<>(
         CollectionOperation.Type.ADD,
-        new ModelEntry(value.getString("id"), value, keys),
+        new EntityRecord(value.getString("id"), value, keys),
         VersionMap.of(keys.get(0), model.nextVersion(keys.get(0))),
         keys.get(0));
   }
 
-  private PortableJson thisModelToList() {
-    PortableJson result = jsonParser.emptyArray();
-    model
-        .getData()
-        .keys()
-        .forEach(id -> result.put(result.getLength(), model.getData().getValue(id).value.value));
-    return result;
+  /** Number of entities in the local model. */
+  public synchronized int size() {
+    return model == null ? 0 : model.getData().size();
   }
 
-  static class ModelEntry implements Referenceable {
-    static final String KEYS = "keys";
+  /** Number of times the toList() snapshot had to be rebuilt after a change. */
+  public synchronized long listSnapshotBuilds() {
+    return listSnapshotBuilds;
+  }
 
-    ModelValue value;
-    Set<String> keys;
+  private boolean applyOperation(CollectionOperation<EntityRecord> operation) {
+    if (!model.applyOperation(operation)) {
+      return false;
+    }
+    listSnapshot = null;
+    for (CollectionIndex index : indexes.values()) {
+      if (operation.getType() == CollectionOperation.Type.ADD) {
+        index.add(operation.getValue().value);
+      } else {
+        index.remove(operation.getValue().getId());
+      }
+    }
+    return true;
+  }
 
-    ModelEntry(String id, PortableJson value, Collection<String> keys) {
-      this.value = new ModelValue(id, value, null);
-      this.keys = new HashSet<>(keys);
+  private void applyBatch(CollectionBatch<EntityRecord> batch) {
+    if (model.applyBatch(batch) == 0) {
+      return;
     }
+    listSnapshot = null;
+    for (CollectionIndex index : indexes.values()) {
+      for (int i = 0; i < batch.size(); ++i) {
+        if (!batch.isAccepted(i)) {
+          continue;
+        }
+        if (batch.isRemove(i)) {
+          index.remove(batch.get(i).getId());
+        } else {
+          index.add(batch.get(i).value);
+        }
+      }
+    }
+  }
 
-    static ModelEntry fromJson(PortableJson json) {
-      Set<String> keys = new HashSet<>();
-      json.getObject(KEYS).forEach(keys::add);
-      return new ModelEntry(json.getString("id"), json.getObject("value"), keys);
+  private PortableJson thisModelToList() {
+    if (listSnapshot != null) {
+      return listSnapshot;
     }
+    PortableJson result = jsonParser.emptyArray();
+    for (String id : model.getData().keys()) {
+      result.put(result.getLength(), model.getData().getValue(id).value);
+    }
+    listSnapshot = result;
+    listSnapshotBuilds++;
+    return result;
+  }
+
+  private static class DurabilityWaiter {
+    // Resolved once every write message up to this one is acknowledged.
+    final long write;
+    final PortablePromise.Resolver<Void> resolver;
 
-    @Override
-    public String getId() {
-      return value.id;
+    DurabilityWaiter(long write, PortablePromise.Resolver<Void> resolver) {
+      this.write = write;
+      this.resolver = resolver;
     }
   }
 
-  static class ModelValue {
-    String id;
-    PortableJson value;
-    String storageKey;
+  private static class CoalescedEntry {
+    // The value the entity had before the coalesced updates, if they removed it (or, if they
+    // updated and then removed it, its last updated value).
+    PortableJson removed;
+    // The value the entity has after the coalesced updates, if they (re-)added it.
+    PortableJson added;
 
-    ModelValue(String id, PortableJson value, String storageKey) {
-      this.id = id;
-      this.value = value;
-      this.storageKey = storageKey;
+    CoalescedEntry(PortableJson removed, PortableJson added) {
+      this.removed = removed;
+      this.added = added;
     }
   }
 }
@@ -1,5 +1,8 @@
 package arcs.api;
 
+import java.util.List;
+import java.util.function.Consumer;
+
 public interface CollectionStore extends Store {
   PortablePromise<PortableJson> get(String id);
 
@@ -7,7 +10,58 @@ public interface CollectionStore extends Store {
 
   void clear(String particleId);
 
+  /**
+   * Stores every entity of the {@code values} array, {@code keys[i]} being the key of the i-th
+   * one, with one message to the host and one update notification.
+   */
+  void storeAll(PortableJson values, String[] keys, String particleId);
+
+  /** Removes the entities with the given ids, with one message and one update notification. */
+  void removeAll(List<String> ids, String particleId);
+
   void remove(String id, String[] keys, String particleId);
 
+  /**
+   * Resolves to an array of all entities. The array may be shared with other readers (a synced
+   * proxy hands out one cached snapshot until the collection changes), so it must not be modified.
+   */
   PortablePromise<PortableJson> toList();
+
+  /**
+   * Resolves to one page of at most {@code pageSize} entities, as an object with a "values" array
+   * and, if there are more entities, a "continuationToken" to pass for the next page. Pass a null
+   * token for the first page. Entities added or removed between pages may be missed or seen twice.
+   */
+  PortablePromise<PortableJson> toList(int pageSize, String continuationToken);
+
+  /**
+   * Hands every entity to {@code consumer}, fetching {@code pageSize} entities at a time, and
+   * resolves to the number of entities visited.
+   */
+  PortablePromise<Integer> forEach(int pageSize, Consumer<PortableJson> consumer);
+
+  /**
+   * Buffers stores and removes and sends them to the host in one message per {@code maxBatchSize}
+   * writes, or once the current task ends if that comes first. Writes to the same entity within a
+   * batch are coalesced. 0 sends every write immediately, which is the default.
+   */
+  void setWriteBehind(int maxBatchSize);
+
+  /**
+   * Sends any buffered writes, and resolves once the host has acknowledged every write made
+   * before the call.
+   */
+  PortablePromise<Void> flush();
+
+  /**
+   * Maintains an index on the string-valued schema field {@code field}, so {@link #query} and
+   * {@link #queryPrefix} on it do not scan the collection.
+   */
+  void addIndex(String field);
+
+  /** Resolves to the entities whose {@code field} equals {@code value}. */
+  PortablePromise<PortableJson> query(String field, String value);
+
+  /** Resolves to the entities whose {@code field} starts with {@code prefix}. */
+  PortablePromise<PortableJson> queryPrefix(String field, String prefix);
 }
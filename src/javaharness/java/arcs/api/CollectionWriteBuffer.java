@@ -0,0 +1,117 @@
+package arcs.api;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The stores and removes a {@link CollectionProxy} has applied locally but not yet sent to the
+ * host, coalesced per entity.
+ *
+ * <p>Per entity only the net effect is kept: an optional remove followed by an optional store.
+ * Storing twice sends the last value with the keys of both stores; removing an entity whose store
+ * is still buffered drops that store and keeps only the remove. Entities are independent in the
+ * collection model, so writes to different entities do not need to keep their relative order.
+ */
+class CollectionWriteBuffer {
+  static final String KIND = "kind";
+  static final String STORE = "store";
+  static final String REMOVE = "remove";
+
+  private final Map<String, PendingWrite> writes = new LinkedHashMap<>();
+  // Calls buffered since the last drain, before coalescing.
+  private int buffered;
+
+  private static class PendingWrite {
+    // Keys to remove before the store, or null if the entity is not removed. Empty removes every
+    // key the host knows.
+    Set<String> removeKeys;
+    String removeParticleId;
+    PortableJson storeValue;
+    Set<String> storeKeys;
+    String storeParticleId;
+  }
+
+  void store(PortableJson value, String[] keys, String particleId) {
+    PendingWrite write = pendingWrite(value.getString("id"));
+    if (write.storeValue == null) {
+      write.storeKeys = new LinkedHashSet<>();
+    }
+    write.storeValue = value;
+    write.storeKeys.addAll(Arrays.asList(keys));
+    write.storeParticleId = particleId;
+  }
+
+  void remove(String id, String[] keys, String particleId) {
+    PendingWrite write = pendingWrite(id);
+    write.storeValue = null;
+    write.storeKeys = null;
+    write.storeParticleId = null;
+    if (keys.length == 0) {
+      write.removeKeys = new LinkedHashSet<>();
+    } else if (write.removeKeys == null) {
+      write.removeKeys = new LinkedHashSet<>(Arrays.asList(keys));
+    } else if (!write.removeKeys.isEmpty()) {
+      write.removeKeys.addAll(Arrays.asList(keys));
+    }
+    write.removeParticleId = particleId;
+  }
+
+  boolean isEmpty() {
+    return writes.isEmpty();
+  }
+
+  /** Number of store and remove calls buffered, before coalescing. */
+  int buffered() {
+    return buffered;
+  }
+
+  /** Returns the buffered writes as a JSON array of store and remove entries, and empties it. */
+  PortableJson drain(PortableJsonParser jsonParser) {
+    PortableJson result = jsonParser.emptyArray();
+    for (Map.Entry<String, PendingWrite> entry : writes.entrySet()) {
+      PendingWrite write = entry.getValue();
+      if (write.removeKeys != null) {
+        PortableJson remove =
+            jsonParser
+                .emptyObject()
+                .put(KIND, REMOVE)
+                .put("id", entry.getKey())
+                .put("keys", jsonParser.fromStringArray(write.removeKeys));
+        putParticleId(remove, write.removeParticleId);
+        result.put(result.getLength(), remove);
+      }
+      if (write.storeValue != null) {
+        PortableJson store =
+            jsonParser
+                .emptyObject()
+                .put(KIND, STORE)
+                .put("value", write.storeValue)
+                .put("keys", jsonParser.fromStringArray(write.storeKeys));
+        putParticleId(store, write.storeParticleId);
+        result.put(result.getLength(), store);
+      }
+    }
+    writes.clear();
+    buffered = 0;
+    return result;
+  }
+
+  private static void putParticleId(PortableJson write, String particleId) {
+    if (particleId != null) {
+      write.put("particleId", particleId);
+    }
+  }
+
+  private PendingWrite pendingWrite(String id) {
+    buffered++;
+    PendingWrite write = writes.get(id);
+    if (write == null) {
+      write = new PendingWrite();
+      writes.put(id, write);
+    }
+    return write;
+  }
+}
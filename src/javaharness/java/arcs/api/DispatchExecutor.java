@@ -0,0 +1,10 @@
+package arcs.api;
+
+/**
+ * Runs the tasks that deliver storage events to particles, see {@link
+ * StorageProxyScheduler#setExecutor}. On the JVM any {@code java.util.concurrent.Executor} can be
+ * used as {@code executor::execute}.
+ */
+public interface DispatchExecutor {
+  void execute(Runnable task);
+}
@@ -0,0 +1,91 @@
+package arcs.api;
+
+import arcs.crdt.Referenceable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * An entity in a {@link CollectionProxy} model: its id, its payload and the membership keys it
+ * was stored under, in a single object.
+ *
+ * <p>Almost every entity has exactly one key, so the first key is kept in a field and only
+ * further keys go to an overflow array. Records are immutable; storing an entity again replaces
+ * its record.
+ */
+final class EntityRecord implements Referenceable {
+  static final String KEYS = "keys";
+  private static final String[] NO_KEYS = new String[0];
+
+  final String id;
+  final PortableJson value;
+  // The first key, or null if the entity has none.
+  private final String key;
+  private final String[] moreKeys;
+
+  EntityRecord(String id, PortableJson value, String key) {
+    this.id = id;
+    this.value = value;
+    this.key = key;
+    this.moreKeys = NO_KEYS;
+  }
+
+  EntityRecord(String id, PortableJson value, Collection<String> keys) {
+    this.id = id;
+    this.value = value;
+    if (keys.size() > 1) {
+      keys = new LinkedHashSet<>(keys);
+    }
+    if (keys.isEmpty()) {
+      this.key = null;
+      this.moreKeys = NO_KEYS;
+    } else {
+      String[] all = keys.toArray(new String[0]);
+      this.key = all[0];
+      this.moreKeys = all.length == 1 ? NO_KEYS : Arrays.copyOfRange(all, 1, all.length);
+    }
+  }
+
+  /** Reads a serialized model entry: {"id", "value", "keys"}. */
+  static EntityRecord fromJson(PortableJson json) {
+    PortableJson keysJson = json.getObject(KEYS);
+    String id = json.getString("id");
+    if (keysJson.getLength() == 1) {
+      return new EntityRecord(id, json.getObject("value"), keysJson.getString(0));
+    }
+    List<String> keys = new ArrayList<>(keysJson.getLength());
+    for (int i = 0; i < keysJson.getLength(); ++i) {
+      keys.add(keysJson.getString(i));
+    }
+    return new EntityRecord(id, json.getObject("value"), keys);
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  int keyCount() {
+    return key == null ? 0 : 1 + moreKeys.length;
+  }
+
+  /** Returns the first key; the entity must have one. */
+  String firstKey() {
+    if (key == null) {
+      throw new AssertionError("Entity " + id + " has no keys");
+    }
+    return key;
+  }
+
+  String[] keys() {
+    if (key == null) {
+      return NO_KEYS;
+    }
+    String[] keys = new String[1 + moreKeys.length];
+    keys[0] = key;
+    System.arraycopy(moreKeys, 0, keys, 1, moreKeys.length);
+    return keys;
+  }
+}
@@ -16,6 +16,9 @@ public abstract class Handle {
     public boolean notifySync = true;
     public boolean notifyUpdate = true;
     public boolean notifyDesync = false;
+    // If set, the updates a keepSynced proxy applies in one pass (e.g. when catching up after a
+    // desync) are delivered as a single, merged update.
+    public boolean coalesceUpdates = false;
   }
 
   protected Handle(
@@ -0,0 +1,77 @@
+package arcs.api;
+
+/**
+ * Counts latencies in power-of-two buckets of nanoseconds: bucket {@code b} holds values in
+ * {@code [2^(b-1), 2^b)}, and bucket 0 holds 0. Recording is a few arithmetic operations and never
+ * allocates; percentiles are accurate to within a factor of two.
+ *
+ * <p>Values are recorded by one thread at a time without locking, so a reader on another thread
+ * may see a recording half done; that is fine for monitoring.
+ */
+public final class LatencyHistogram {
+  private static final int BUCKETS = 64;
+
+  private final long[] counts = new long[BUCKETS];
+  private long count;
+  private long totalNanos;
+  private long maxNanos;
+
+  void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    counts[BUCKETS - Long.numberOfLeadingZeros(nanos)]++;
+    count++;
+    totalNanos += nanos;
+    if (nanos > maxNanos) {
+      maxNanos = nanos;
+    }
+  }
+
+  public long count() {
+    return count;
+  }
+
+  public long totalNanos() {
+    return totalNanos;
+  }
+
+  public long maxNanos() {
+    return maxNanos;
+  }
+
+  /**
+   * Returns an upper bound for the {@code quantile} (in {@code [0, 1]}) of the recorded values: the
+   * top of the bucket it falls in, or the maximum if that is lower. Returns 0 if there are none.
+   */
+  public long percentileNanos(double quantile) {
+    if (quantile < 0 || quantile > 1) {
+      throw new IllegalArgumentException("Quantile out of range: " + quantile);
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * count));
+    long seen = 0;
+    for (int bucket = 0; bucket < BUCKETS; bucket++) {
+      seen += counts[bucket];
+      if (seen >= rank) {
+        long top = bucket == 0 ? 0 : (1L << bucket) - 1;
+        return Math.min(top, maxNanos);
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public String toString() {
+    return "count="
+        + count
+        + " mean="
+        + (count == 0 ? 0 : totalNanos / count)
+        + "ns p50<="
+        + percentileNanos(0.5)
+        + "ns p99<="
+        + percentileNanos(0.99)
+        + "ns max="
+        + maxNanos
+        + "ns";
+  }
+}
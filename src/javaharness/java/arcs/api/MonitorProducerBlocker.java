@@ -0,0 +1,36 @@
+package arcs.api;
+
+/** A {@link ProducerBlocker} built on {@link Object#wait}. JVM only. */
+public final class MonitorProducerBlocker implements ProducerBlocker {
+  private final ThreadLocal<Boolean> onLane = new ThreadLocal<>();
+
+  @Override
+  public void await(Object monitor) {
+    try {
+      monitor.wait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for queue space", e);
+    }
+  }
+
+  @Override
+  public void signalAll(Object monitor) {
+    monitor.notifyAll();
+  }
+
+  @Override
+  public void runAsLane(Runnable lane) {
+    onLane.set(Boolean.TRUE);
+    try {
+      lane.run();
+    } finally {
+      onLane.remove();
+    }
+  }
+
+  @Override
+  public boolean onLane() {
+    return onLane.get() != null;
+  }
+}
@@ -12,6 +12,12 @@ public interface PECInnerPort extends PecMessageReceiver {
 
   void synchronizeProxy(StorageProxy storageProxy, Consumer<PortableJson> callback);
 
+  void handleGet(StorageProxy storageProxy, Consumer<PortableJson> callback);
+
+  void handleSet(StorageProxy storageProxy, PortableJson data, String particleId, String barrier);
+
+  void handleClear(StorageProxy storageProxy, String particleId, String barrier);
+
   void handleStore(
       StorageProxy storageProxy,
       Consumer<PortableJson> callback,
@@ -20,6 +26,27 @@ public interface PECInnerPort extends PecMessageReceiver {
 
   void handleToList(StorageProxy storageProxy, Consumer<PortableJson> callback);
 
+  /**
+   * Applies a batch of collection writes in order. {@code data} is an array of {"kind": "store",
+   * "value", "keys", "particleId"} and {"kind": "remove", "id", "keys", "particleId"} entries; the
+   * callback runs once the host has applied all of them.
+   */
+  void handleWriteBatch(
+      StorageProxy storageProxy, Consumer<PortableJson> callback, PortableJson data);
+
+  /**
+   * Fetches one page of a collection, see {@link CollectionStore#toList(int, String)}; a null
+   * token requests the first page.
+   */
+  void handleToListPage(
+      StorageProxy storageProxy,
+      int pageSize,
+      String continuationToken,
+      Consumer<PortableJson> callback);
+
+  /** Fetches the entity with the given id from a collection; the callback gets null if absent. */
+  void handleGetById(StorageProxy storageProxy, String id, Consumer<PortableJson> callback);
+
   void handleRemove(
       StorageProxy storageProxy,
       Consumer<PortableJson> callback,
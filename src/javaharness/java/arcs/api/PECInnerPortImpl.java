@@ -39,9 +39,18 @@ public class PECInnerPortImpl implements PECInnerPort {
   private static final String MESSAGE_PEC_MESSAGE_KEY = "message";
   private static final String MESSAGE_PEC_PEC_VALUE = "pec";
   private static final String MESSAGE_PEC_ENTITY_KEY = "entity";
+  private static final String HANDLE_GET_MSG = "HandleGet";
+  private static final String HANDLE_SET_MSG = "HandleSet";
+  private static final String HANDLE_CLEAR_MSG = "HandleClear";
+  private static final String HANDLE_BARRIER_FIELD = "barrier";
   private static final String HANDLE_STORE_MSG = "HandleStore";
   private static final String HANDLE_PARTICLE_ID_FIELD = "particleId";
   private static final String HANDLE_TO_LIST_MSG = "HandleToList";
+  private static final String HANDLE_GET_BY_ID_MSG = "HandleGetById";
+  private static final String HANDLE_TO_LIST_PAGE_MSG = "HandleToListPage";
+  private static final String HANDLE_WRITE_BATCH_MSG = "HandleWriteBatch";
+  private static final String PAGE_SIZE_FIELD = "pageSize";
+  private static final String CONTINUATION_TOKEN_FIELD = "continuationToken";
   private static final String HANDLE_REMOVE_MULTIPLE_MSG = "HandleRemoveMultiple";
   private static final String HANDLE_REMOVE_MSG = "HandleRemove";
 
@@ -54,6 +63,8 @@ public class PECInnerPortImpl implements PECInnerPort {
   private final PortableJsonParser jsonParser;
   private final PortablePromiseFactory promiseFactory;
   private final IdGenerator idGenerator;
+  // Shared by all proxies of this port, so that each particle has a single event queue.
+  private final StorageProxyScheduler scheduler;
 
   public PECInnerPortImpl(
       String id,
@@ -69,6 +80,26 @@ public class PECInnerPortImpl implements PECInnerPort {
     this.jsonParser = jsonParser;
     this.promiseFactory = promiseFactory;
     this.idGenerator = sessionId == null ? IdGenerator.newSession() : new IdGenerator(sessionId);
+    this.scheduler = new StorageProxyScheduler(promiseFactory);
+  }
+
+  /** See {@link StorageProxyScheduler#setExecutor}. */
+  public void setDispatchExecutor(DispatchExecutor executor) {
+    scheduler.setExecutor(executor);
+  }
+
+  /** See {@link StorageProxyScheduler#setQueueBound}. */
+  public void setQueueBound(
+      int maxEventsPerHandle,
+      StorageProxyScheduler.OverflowPolicy policy,
+      ProducerBlocker blocker) {
+    scheduler.setProducerBlocker(blocker);
+    scheduler.setQueueBound(maxEventsPerHandle, policy);
+  }
+
+  /** Queue depths, wait and callback latencies of the storage events for this port's particles. */
+  public SchedulerMetrics getSchedulerMetrics() {
+    return scheduler.getMetrics();
   }
 
   @Override
@@ -128,7 +159,8 @@ public class PECInnerPortImpl implements PECInnerPort {
                 messageBody.getString(HANDLE_NAME_FIELD),
                 this,
                 jsonParser,
-                promiseFactory);
+                promiseFactory,
+                scheduler);
         mapper.establishThingMapping(identifier, new Thing<>(storageProxy));
         break;
       case SIMPLE_CALLBACK_MSG:
@@ -155,6 +187,11 @@ public class PECInnerPortImpl implements PECInnerPort {
           break;
         }
       case STOP_MSG:
+        // The arc is shutting down; drop the per-particle scheduler metrics.
+        for (Particle particle : scheduler.getMetrics().particles()) {
+          scheduler.forget(particle);
+        }
+        break;
       case DEV_TOOLS_CONNECTED_MSG:
         // TODO: not supported yet.
         break;
@@ -190,6 +227,34 @@ public class PECInnerPortImpl implements PECInnerPort {
     postMessage(message);
   }
 
+  @Override
+  public void handleGet(StorageProxy storageProxy, Consumer<PortableJson> callback) {
+    postMessage(
+        constructHandleMessage(
+            HANDLE_GET_MSG, storageProxy, callback, /* data= */ null, /* particleId= */ null));
+  }
+
+  @Override
+  public void handleSet(
+      StorageProxy storageProxy, PortableJson data, String particleId, String barrier) {
+    PortableJson message =
+        constructHandleMessage(
+            HANDLE_SET_MSG, storageProxy, /* callback= */ null, data, particleId);
+    if (barrier != null) {
+      message.getObject(MESSAGE_BODY_FIELD).put(HANDLE_BARRIER_FIELD, barrier);
+    }
+    postMessage(message);
+  }
+
+  @Override
+  public void handleClear(StorageProxy storageProxy, String particleId, String barrier) {
+    PortableJson message =
+        constructHandleMessage(
+            HANDLE_CLEAR_MSG, storageProxy, /* callback= */ null, /* data= */ null, particleId);
+    message.getObject(MESSAGE_BODY_FIELD).put(HANDLE_BARRIER_FIELD, barrier);
+    postMessage(message);
+  }
+
   @Override
   public void handleStore(
       StorageProxy storageProxy,
@@ -206,6 +271,41 @@ public class PECInnerPortImpl implements PECInnerPort {
             HANDLE_TO_LIST_MSG, storageProxy, callback, /* data= */ null, /* particleId= */ null));
   }
 
+  @Override
+  public void handleWriteBatch(
+      StorageProxy storageProxy, Consumer<PortableJson> callback, PortableJson data) {
+    postMessage(
+        constructHandleMessage(
+            HANDLE_WRITE_BATCH_MSG, storageProxy, callback, data, /* particleId= */ null));
+  }
+
+  @Override
+  public void handleToListPage(
+      StorageProxy storageProxy,
+      int pageSize,
+      String continuationToken,
+      Consumer<PortableJson> callback) {
+    PortableJson data = jsonParser.emptyObject().put(PAGE_SIZE_FIELD, pageSize);
+    if (continuationToken != null) {
+      data.put(CONTINUATION_TOKEN_FIELD, continuationToken);
+    }
+    postMessage(
+        constructHandleMessage(
+            HANDLE_TO_LIST_PAGE_MSG, storageProxy, callback, data, /* particleId= */ null));
+  }
+
+  @Override
+  public void handleGetById(
+      StorageProxy storageProxy, String id, Consumer<PortableJson> callback) {
+    postMessage(
+        constructHandleMessage(
+            HANDLE_GET_BY_ID_MSG,
+            storageProxy,
+            callback,
+            jsonParser.emptyObject().put("id", id),
+            /* particleId= */ null));
+  }
+
   @Override
   public void handleRemove(
       StorageProxy storageProxy,
@@ -252,9 +352,11 @@ public class PECInnerPortImpl implements PECInnerPort {
     PortableJson message = constructMessage(messageType);
     PortableJson body = message.getObject(MESSAGE_BODY_FIELD);
     body.put(PROXY_HANDLE_ID_FIELD, mapper.identifierForThing(new Thing<>(storageProxy)));
-    body.put(
-        PROXY_CALLBACK_FIELD,
-        mapper.createMappingForThing(new Thing<>(callback), /* requestedId= */ null));
+    if (callback != null) {
+      body.put(
+          PROXY_CALLBACK_FIELD,
+          mapper.createMappingForThing(new Thing<>(callback), /* requestedId= */ null));
+    }
     if (data != null) {
       body.put(DATA_FIELD, data);
     }
@@ -19,6 +19,7 @@ public interface Particle {
 
   Handle getHandle(String id);
 
+  // The model may be shared with other handles and toList() callers; it must not be modified.
   void onHandleSync(Handle handle, PortableJson model);
 
   void onHandleUpdate(Handle handle, PortableJson update);
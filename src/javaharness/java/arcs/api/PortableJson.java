@@ -24,6 +24,7 @@ public interface PortableJson {
 
   PortableJson getObject(int index);
 
+  /** Returns null if the value stored under {@code key} is null. */
   PortableJson getObject(String key);
 
   int getLength();
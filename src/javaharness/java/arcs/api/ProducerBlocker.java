@@ -0,0 +1,21 @@
+package arcs.api;
+
+/**
+ * Makes the port wait for room in full scheduler queues, for {@link
+ * StorageProxyScheduler.OverflowPolicy#BLOCK}, and tells lane threads apart, which must never
+ * wait. J2CL has no way to block a thread, so only the JVM provides one: {@link
+ * MonitorProducerBlocker}.
+ */
+public interface ProducerBlocker {
+  /** Releases {@code monitor}, which the caller holds, until signalled, then reacquires it. */
+  void await(Object monitor);
+
+  /** Wakes the threads waiting on {@code monitor}, which the caller holds. */
+  void signalAll(Object monitor);
+
+  /** Runs {@code lane} on the current thread, marked as a lane thread. */
+  void runAsLane(Runnable lane);
+
+  /** Whether the current thread is running a lane. */
+  boolean onLane();
+}
@@ -0,0 +1,38 @@
+package arcs.api;
+
+import java.util.List;
+
+/**
+ * Latencies recorded by a {@link StorageProxyScheduler}, per particle and per event kind (sync,
+ * update or desync), with queue depth gauges. The values are live and may be polled at any time.
+ * A particle's latencies are dropped when the scheduler forgets it, see {@link
+ * StorageProxyScheduler#forget}.
+ */
+public interface SchedulerMetrics {
+  /** The particles that had events delivered, in the order of their first delivery. */
+  List<Particle> particles();
+
+  /** The event kinds delivered to {@code particle}. */
+  List<String> kinds(Particle particle);
+
+  /** Events dropped from the queue because a newer event superseded them. */
+  long collapsedEvents();
+
+  /** Events dropped or replaced by a resync because their handle's queue was full. */
+  long overflowEvents();
+
+  /** Events currently queued, for all particles. */
+  int pendingEvents();
+
+  /** Events currently queued for {@code particle}. */
+  int pendingEvents(Particle particle);
+
+  /** The most events any one handle has had queued at once. */
+  int peakHandleQueueDepth();
+
+  /** Time from enqueue to delivery, or null if no such event was delivered. */
+  LatencyHistogram waitTime(Particle particle, String kind);
+
+  /** Time spent in the particle's callback, or null if no such event was delivered. */
+  LatencyHistogram callbackTime(Particle particle, String kind);
+}
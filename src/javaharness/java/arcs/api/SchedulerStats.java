@@ -0,0 +1,128 @@
+package arcs.api;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The {@link SchedulerMetrics} of one scheduler. */
+class SchedulerStats implements SchedulerMetrics {
+  private static final String[] KINDS = {"sync", "update", "desync"};
+
+  private final StorageProxyScheduler scheduler;
+  private final Map<Particle, ParticleStats> byParticle = new LinkedHashMap<>();
+
+  /**
+   * The histograms of one particle. The scheduler keeps a reference with the particle's queue, and
+   * only the particle's lane records into them, so recording takes no lock.
+   */
+  static final class ParticleStats {
+    // Wait and callback histograms, indexed like KINDS.
+    private final LatencyHistogram[] waits = new LatencyHistogram[KINDS.length];
+    private final LatencyHistogram[] callbacks = new LatencyHistogram[KINDS.length];
+
+    ParticleStats() {
+      for (int i = 0; i < KINDS.length; i++) {
+        waits[i] = new LatencyHistogram();
+        callbacks[i] = new LatencyHistogram();
+      }
+    }
+
+    void record(String kind, long waitNanos, long callbackNanos) {
+      int index = indexOf(kind);
+      if (index >= 0) {
+        waits[index].record(waitNanos);
+        callbacks[index].record(callbackNanos);
+      }
+    }
+  }
+
+  SchedulerStats(StorageProxyScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  synchronized ParticleStats statsFor(Particle particle) {
+    ParticleStats stats = byParticle.get(particle);
+    if (stats == null) {
+      stats = new ParticleStats();
+      byParticle.put(particle, stats);
+    }
+    return stats;
+  }
+
+  synchronized void forget(Particle particle) {
+    byParticle.remove(particle);
+  }
+
+  private static int indexOf(String kind) {
+    for (int i = 0; i < KINDS.length; i++) {
+      if (KINDS[i].equals(kind)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public synchronized List<Particle> particles() {
+    return new ArrayList<>(byParticle.keySet());
+  }
+
+  @Override
+  public synchronized List<String> kinds(Particle particle) {
+    List<String> kinds = new ArrayList<>();
+    ParticleStats stats = byParticle.get(particle);
+    if (stats != null) {
+      for (int i = 0; i < KINDS.length; i++) {
+        if (stats.waits[i].count() > 0) {
+          kinds.add(KINDS[i]);
+        }
+      }
+    }
+    return kinds;
+  }
+
+  @Override
+  public long collapsedEvents() {
+    return scheduler.collapsedEvents();
+  }
+
+  @Override
+  public long overflowEvents() {
+    return scheduler.overflowEvents();
+  }
+
+  @Override
+  public int pendingEvents() {
+    return scheduler.pendingEvents(null);
+  }
+
+  @Override
+  public int pendingEvents(Particle particle) {
+    return scheduler.pendingEvents(particle);
+  }
+
+  @Override
+  public int peakHandleQueueDepth() {
+    return scheduler.peakHandleQueueDepth();
+  }
+
+  @Override
+  public LatencyHistogram waitTime(Particle particle, String kind) {
+    return find(particle, kind, /* callback= */ false);
+  }
+
+  @Override
+  public LatencyHistogram callbackTime(Particle particle, String kind) {
+    return find(particle, kind, /* callback= */ true);
+  }
+
+  private synchronized LatencyHistogram find(Particle particle, String kind, boolean callback) {
+    ParticleStats stats = byParticle.get(particle);
+    int index = indexOf(kind);
+    if (stats == null || index < 0 || stats.waits[index].count() == 0) {
+      return null;
+    }
+    return callback ? stats.callbacks[index] : stats.waits[index];
+  }
+}
@@ -78,12 +78,24 @@ public class Schema {
 
   public final List<String> names;
   public final List<Field> fields;
+  // Name of the field at the same position in `fields`.
+  public final List<String> fieldNames;
 
-  public Schema(List<String> names, List<Field> fields) {
+  public Schema(List<String> names, List<String> fieldNames, List<Field> fields) {
+    if (fieldNames.size() != fields.size()) {
+      throw new IllegalArgumentException("Every schema field needs a name");
+    }
     this.names = names;
+    this.fieldNames = fieldNames;
     this.fields = fields;
   }
 
+  /** Returns the field called {@code name}, or null if the schema has none. */
+  public Field getField(String name) {
+    int index = fieldNames.indexOf(name);
+    return index < 0 ? null : fields.get(index);
+  }
+
   public static Schema fromJson(PortableJson json) {
     PortableJson namesJson = json.getArray("names");
     List<String> names = new ArrayList<>(namesJson.getLength());
@@ -91,9 +103,13 @@ public class Schema {
       names.add(namesJson.getString(i));
     }
     PortableJson fieldsJson = json.getObject("fields");
+    List<String> fieldNames = new ArrayList<>();
     List<Field> fields = new ArrayList<>();
     fieldsJson.forEach(
-        fieldName -> fields.add(Schema.fieldFromJson(fieldsJson.getObject(fieldName))));
-    return new Schema(names, fields);
+        fieldName -> {
+          fieldNames.add(fieldName);
+          fields.add(Schema.fieldFromJson(fieldsJson.getObject(fieldName)));
+        });
+    return new Schema(names, fieldNames, fields);
   }
 }
@@ -1,6 +1,10 @@
 package arcs.api;
 
-class Singleton extends Handle {
+import java.util.Objects;
+
+public class Singleton extends Handle {
+  private final SingletonStore singletonStore;
+
   public Singleton(
       StorageProxy storage,
       IdGenerator idGenerator,
@@ -9,10 +13,64 @@ class Singleton extends Handle {
       boolean canRead,
       boolean canWrite) {
     super(storage, idGenerator, name, particleId, canRead, canWrite);
+    assert storage instanceof SingletonStore : "invalid storage";
+    this.singletonStore = (SingletonStore) storage;
   }
 
   @Override
   public void notify(String kind, Particle particle, PortableJson details) {
-    throw new AssertionError("Singleton::notify not implemented");
+    switch (kind) {
+      case "sync":
+        // TODO: Should return promise?
+        particle.onHandleSync(this, details);
+        break;
+      case "update":
+        // A cleared singleton has no "data"; an initial set has no "oldData".
+        PortableJson update = jsonParser.emptyObject();
+        PortableJson data = details.hasKey("data") ? details.getObject("data") : null;
+        PortableJson oldData = details.hasKey("oldData") ? details.getObject("oldData") : null;
+        if (data != null) update.put("data", data);
+        if (oldData != null) update.put("oldData", oldData);
+        // Coalesced updates from several originators carry no originatorId.
+        update.put(
+            "originator",
+            details.hasKey("originatorId")
+                && Objects.equals(details.getString("originatorId"), this.particleId));
+        // TODO: Should return promise?
+        particle.onHandleUpdate(this, update);
+        break;
+      case "desync":
+        // TODO: Should return promise?
+        particle.onHandleDesync(this);
+        break;
+      default:
+        throw new AssertionError(
+            "Unsupported notify kind " + kind + " for particle: " + particle.getName());
+    }
+  }
+
+  /** Returns the entity held by the singleton, or null if it is cleared. */
+  public PortablePromise<PortableJson> get() {
+    if (!canRead) {
+      throw new AssertionError("Handle not readable");
+    }
+    return singletonStore.get();
+  }
+
+  /** Stores a new entity into the singleton, replacing any existing entity. */
+  public void set(PortableJson entity) {
+    if (!canWrite) {
+      throw new AssertionError("Handle not writeable");
+    }
+    createIdForEntity(entity);
+    singletonStore.set(entity, particleId);
+  }
+
+  /** Clears any entity currently in the singleton. */
+  public void clear() {
+    if (!canWrite) {
+      throw new AssertionError("Handle not writeable");
+    }
+    singletonStore.clear(particleId);
   }
 }
@@ -1,29 +1,207 @@
-// package arcs.api;
-
-// public class SingletonProxy extends StorageProxy implements SingletonStore {
-//   public SingletonProxy(String id, Type type, PECInnerPort port, String name) {
-//     super(id, type, port, name);
-//   }
-
-//   @Override
-//   protected boolean synchronizeModel(int version, PortableJson model) {
-//     // TODO: implement
-//     throw new AssertionError("SingletonProxy::updateModel not implemented");
-//   }
-
-//   @Override
-//   protected boolean updateModel(int version, PortableJson data) {
-//     // TODO: implement
-//     throw new AssertionError("SingletonProxy::updateModel not implemented");
-//   }
-
-//   // TODO: add parameters and return values, and implement.
-//   @Override
-//   public void get() {}
-
-//   @Override
-//   public void set() {}
-
-//   @Override
-//   public void clear() {}
-// }
+package arcs.api;
+
+import arcs.crdt.CRDTSingleton;
+import arcs.crdt.Referenceable;
+import arcs.crdt.SingletonOperation;
+import arcs.crdt.VersionMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Variables are synchronized in a 'last-writer-wins' scheme. When the SingletonProxy mutates the
+ * model, it sets a barrier and expects to receive the barrier value echoed back in a subsequent
+ * update event. Between those two points in time updates are not applied or notified about as
+ * these reflect concurrent writes that did not 'win'.
+ *
+ * <p>The local copy is a {@link CRDTSingleton}. The backing store serializes all writes, so every
+ * change is applied as actor "" with a clock that dominates the whole model; sets and clears are
+ * therefore always accepted and only ever touch the current value.
+ */
+public class SingletonProxy extends StorageProxy implements SingletonStore {
+  private static final String ACTOR = "";
+
+  CRDTSingleton<ModelValue> model = new CRDTSingleton<>();
+  private final IdGenerator barrierIdGenerator = IdGenerator.newSession();
+
+  public SingletonProxy(
+      String id,
+      Type type,
+      PECInnerPort port,
+      String name,
+      PortableJsonParser jsonParser,
+      PortablePromiseFactory promiseFactory,
+      StorageProxyScheduler scheduler) {
+    super(id, type, port, name, jsonParser, promiseFactory, scheduler);
+  }
+
+  @Override
+  public synchronized PortableJson getModelForSync() {
+    return currentValue();
+  }
+
+  @Override
+  public synchronized boolean synchronizeModel(Integer version, PortableJson model) {
+    // If there's an active barrier then we shouldn't apply the model here, because there is a
+    // more recent write from the particle side that is still in flight.
+    if (barrier != null) {
+      return false;
+    }
+    this.version = version;
+    ModelValue value =
+        model.getLength() == 0 ? null : ModelValue.of(model.getObject(0).getObject("value"));
+    VersionMap clock = VersionMap.of(ACTOR, version);
+    this.model = new CRDTSingleton<>(value, clock, new VersionMap(clock));
+    return true;
+  }
+
+  @Override
+  public PortableJson processUpdate(PortableJson update, boolean apply) {
+    if (!update.hasKey("data")) {
+      throw new AssertionError(
+          "StorageProxy received invalid update event: " + jsonParser.stringify(update));
+    }
+    if (!apply) {
+      return update;
+    }
+    // If we have set a barrier, suppress updates until after we have seen the barrier return via
+    // an update.
+    if (barrier != null) {
+      if (update.hasKey("barrier") && barrier.equals(update.getString("barrier"))) {
+        barrier = null;
+        // We just cleared a barrier which means we are now synchronized. If we weren't
+        // synchronized already, then we need to tell the handles.
+        if (syncState != SyncState.FULL) {
+          syncState = SyncState.FULL;
+          notify("sync", getModelForSync(), syncObservers);
+        }
+      }
+      return null;
+    }
+    PortableJson oldData = currentValue();
+    PortableJson data = update.getObject("data");
+    if (data == null) {
+      applyClear();
+    } else {
+      applySet(data);
+    }
+    return updateDetails(update.getString("originatorId"), data, oldData);
+  }
+
+  /** Reports the transition from the first update's old value to the last update's value. */
+  @Override
+  PortableJson coalesceUpdates(List<PortableJson> handleUpdates) {
+    if (handleUpdates.size() == 1) {
+      return handleUpdates.get(0);
+    }
+    PortableJson first = handleUpdates.get(0);
+    PortableJson last = handleUpdates.get(handleUpdates.size() - 1);
+    PortableJson oldData = first.hasKey("oldData") ? first.getObject("oldData") : null;
+    PortableJson data = last.hasKey("data") ? last.getObject("data") : null;
+    if (oldData == null
+        ? data == null
+        : data != null && jsonParser.stringify(oldData).equals(jsonParser.stringify(data))) {
+      return null;
+    }
+    return updateDetails(commonOriginator(handleUpdates), data, oldData);
+  }
+
+  // Read ops: if we're synchronized we can just return the local copy of the data. Otherwise,
+  // send a request to the backing store.
+  @Override
+  public synchronized PortablePromise<PortableJson> get() {
+    if (syncState == SyncState.FULL) {
+      return promiseFactory.newPromise(currentValue());
+    } else {
+      return promiseFactory.newPromise(
+          (PortablePromise.Resolver<PortableJson> resolver, PortablePromise.Rejector<?> rejecter) ->
+              port.handleGet(this, resolver));
+    }
+  }
+
+  @Override
+  public synchronized void set(PortableJson entity, String particleId) {
+    PortableJson oldData = currentValue();
+    if (oldData != null && jsonParser.stringify(oldData).equals(jsonParser.stringify(entity))) {
+      return;
+    }
+    // If we're setting to this handle but we aren't listening to the store, then there's no point
+    // creating a barrier: the response to the set could come back before a listener is registered
+    // and this proxy would end up locked waiting for a barrier that never arrives.
+    barrier = listenerAttached ? generateBarrier() : null;
+    applySet(entity);
+    port.handleSet(this, entity, particleId, barrier);
+    notify("update", updateDetails(particleId, entity, oldData), updateObservers);
+  }
+
+  @Override
+  public synchronized void clear(String particleId) {
+    PortableJson oldData = currentValue();
+    if (oldData == null) {
+      return;
+    }
+    barrier = generateBarrier();
+    applyClear();
+    port.handleClear(this, particleId, barrier);
+    notify("update", updateDetails(particleId, null, oldData), updateObservers);
+  }
+
+  private void applySet(PortableJson entity) {
+    if (!model.applyOperation(SingletonOperation.set(ModelValue.of(entity), nextClock(), ACTOR))) {
+      throw new AssertionError("SingletonProxy " + id + " rejected a set");
+    }
+  }
+
+  private void applyClear() {
+    VersionMap clock = new VersionMap(model.getData().getVersion());
+    model.applyOperation(SingletonOperation.clear(clock, ACTOR));
+  }
+
+  /** A clock for the next write, dominating every value held by the model. */
+  private VersionMap nextClock() {
+    VersionMap clock = new VersionMap(model.getData().getVersion());
+    clock.put(ACTOR, model.nextVersion(ACTOR));
+    return clock;
+  }
+
+  private PortableJson currentValue() {
+    ModelValue value = model.getParticleView().get();
+    return value == null ? null : value.value;
+  }
+
+  private PortableJson updateDetails(String originatorId, PortableJson data, PortableJson oldData) {
+    PortableJson details = jsonParser.emptyObject();
+    if (originatorId != null) {
+      details.put("originatorId", originatorId);
+    }
+    if (data != null) {
+      details.put("data", data);
+    }
+    if (oldData != null) {
+      details.put("oldData", oldData);
+    }
+    return details;
+  }
+
+  private String generateBarrier() {
+    return barrierIdGenerator.newChildId(Id.fromString(id), "barrier").toString();
+  }
+
+  static class ModelValue implements Referenceable {
+    final String id;
+    final PortableJson value;
+
+    ModelValue(String id, PortableJson value) {
+      this.id = id;
+      this.value = value;
+    }
+
+    static ModelValue of(PortableJson value) {
+      return new ModelValue(Objects.requireNonNull(value.getString("id")), value);
+    }
+
+    @Override
+    public String getId() {
+      return id;
+    }
+  }
+}
@@ -1,10 +1,9 @@
 package arcs.api;
 
 public interface SingletonStore extends Store {
-  // TODO: add parameters and return values.
-  void get();
+  PortablePromise<PortableJson> get();
 
-  void set();
+  void set(PortableJson entity, String particleId);
 
-  void clear();
+  void clear(String particleId);
 }
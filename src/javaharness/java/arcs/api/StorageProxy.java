@@ -4,9 +4,17 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Predicate;
+import java.util.Objects;
 import java.util.logging.Logger;
 
+/**
+ * The local copy of a store, shared by the handles of all particles using it.
+ *
+ * <p>Proxies are called both from the port, as updates arrive, and from particle callbacks, which
+ * run on other threads if the scheduler has a {@link DispatchExecutor}. All state is therefore
+ * guarded by the proxy's monitor: public methods and port callbacks are synchronized. Particle
+ * code (promise callbacks, forEach consumers) is run without holding it where possible.
+ */
 public abstract class StorageProxy implements Store {
   public final String id;
   public final String name;
@@ -16,11 +24,26 @@ public abstract class StorageProxy implements Store {
   protected boolean keepSynced = false;
   protected SyncState syncState = SyncState.NONE;
   protected Map<Handle, Particle> observers = new HashMap<>();
-  protected List<PortableJson> updates = new ArrayList<>();
+  // Observers grouped by the notifications they take, as configured in their Handle.Options when
+  // they registered, so notifying does not filter every observer on every event.
+  protected final ObserverGroup updateObservers = new ObserverGroup();
+  protected final ObserverGroup syncedUpdateObservers = new ObserverGroup();
+  protected final ObserverGroup coalescedUpdateObservers = new ObserverGroup();
+  protected final ObserverGroup unsyncedUpdateObservers = new ObserverGroup();
+  protected final ObserverGroup syncObservers = new ObserverGroup();
+  protected final ObserverGroup desyncObservers = new ObserverGroup();
+  // Particle ids of all observers, to recognize updates that originated from them.
+  protected final Map<String, Integer> observerParticleIds = new HashMap<>();
+  protected UpdateReorderBuffer<PortableJson> updates =
+      new UpdateReorderBuffer<>(UpdateReorderBuffer.DEFAULT_MAX_CAPACITY);
+  // Number of update events that had to be buffered because they arrived while desynchronized.
+  private long updatesBufferedWhileDesynced = 0;
   protected PECInnerPort port;
   protected PortableJsonParser jsonParser;
   protected PortablePromiseFactory promiseFactory;
-  protected StorageProxyScheduler scheduler;
+  protected final StorageProxyScheduler scheduler;
+  // Set by SingletonProxy while one of its writes is in flight.
+  protected String barrier = null;
 
   private static final Logger logger = Logger.getLogger(StorageProxy.class.getName());
 
@@ -35,14 +58,15 @@ public abstract class StorageProxy implements Store {
       PECInnerPort port,
       String name,
       PortableJsonParser jsonParser,
-      PortablePromiseFactory promiseFactory) {
+      PortablePromiseFactory promiseFactory,
+      StorageProxyScheduler scheduler) {
     this.id = id;
     this.port = port;
     this.type = type;
     this.name = name;
     this.jsonParser = jsonParser;
     this.promiseFactory = promiseFactory;
-    this.scheduler = new StorageProxyScheduler(promiseFactory);
+    this.scheduler = scheduler;
   }
 
   abstract PortableJson getModelForSync();
@@ -51,12 +75,43 @@ public abstract class StorageProxy implements Store {
 
   abstract PortableJson processUpdate(PortableJson operation, boolean apply);
 
-  public void register(Particle particle, Handle handle) {
+  /**
+   * Merges handle updates produced by {@link #processUpdate}, in order, into one equivalent
+   * update, or returns null if they cancel out. Proxies that support coalesced notifications
+   * override this; by default updates cannot be merged and only a single one is accepted.
+   */
+  PortableJson coalesceUpdates(List<PortableJson> handleUpdates) {
+    if (handleUpdates.size() != 1) {
+      throw new AssertionError(getClass().getSimpleName() + " cannot coalesce updates");
+    }
+    return handleUpdates.get(0);
+  }
+
+  /** The originator shared by all of {@code handleUpdates}, or null if they differ. */
+  static String commonOriginator(List<PortableJson> handleUpdates) {
+    String originator = null;
+    for (int i = 0; i < handleUpdates.size(); i++) {
+      PortableJson update = handleUpdates.get(i);
+      String id = update.hasKey("originatorId") ? update.getString("originatorId") : null;
+      if (i == 0) {
+        originator = id;
+      } else if (!Objects.equals(originator, id)) {
+        return null;
+      }
+    }
+    return originator;
+  }
+
+  public synchronized void register(Particle particle, Handle handle) {
     if (!handle.canRead) {
       return;
     }
 
-    observers.put(handle, particle);
+    Particle previous = observers.put(handle, particle);
+    if (previous != null) {
+      unregisterGroups(handle);
+    }
+    registerGroups(particle, handle);
 
     if (!listenerAttached) {
       port.initializeProxy(this, this::onUpdate);
@@ -78,11 +133,16 @@ public abstract class StorageProxy implements Store {
   }
 
   protected void onUpdate(PortableJson update) {
+    // Backpressure for OverflowPolicy.BLOCK, before taking the lock the lanes need to drain.
+    scheduler.awaitRoom();
+    applyUpdate(update);
+  }
+
+  protected synchronized void applyUpdate(PortableJson update) {
     // Immediately notify any handles that are not configured with keepSynced but do want updates.
-    if (observers.keySet().stream()
-            .anyMatch(handle -> !handle.options.keepSynced && handle.options.notifyUpdate)) {
+    if (!unsyncedUpdateObservers.isEmpty()) {
       PortableJson handleUpdate = processUpdate(update, false);
-      notify(UPDATE, handleUpdate, options -> !options.keepSynced && options.notifyUpdate);
+      notify(UPDATE, handleUpdate, unsyncedUpdateObservers);
     }
 
     // Bail if we're not in synchronized mode or this is a stale event.
@@ -90,7 +150,7 @@ public abstract class StorageProxy implements Store {
       return;
     }
     int updateVersion = update.getInt(VERSION);
-    if (updateVersion <= version) {
+    if (version != null && updateVersion <= version) {
       logger.warning(
           "StorageProxy "
               + id
@@ -103,12 +163,23 @@ public abstract class StorageProxy implements Store {
 
     // Add the update to the queue and process. Most of the time the queue should be empty and
     // processUpdates will consume this event immediately.
-    updates.add(update);
-    updates.sort((a, b) -> a.getInt(VERSION) - b.getInt(VERSION));
+    switch (updates.insert(updateVersion, update)) {
+      case STALE:
+        return;
+      case OVERFLOW:
+        logger.warning(
+            "StorageProxy " + id + " dropped update version " + updateVersion + ", queue is full");
+        break;
+      case BUFFERED:
+        if (version == null || updateVersion != version + 1) {
+          updatesBufferedWhileDesynced++;
+        }
+        break;
+    }
     processUpdates();
   }
 
-  public void onSynchronize(PortableJson data) {
+  public synchronized void onSynchronize(PortableJson data) {
     int version = data.getInt(VERSION);
     if (this.version != null && version <= this.version) {
       logger.warning(
@@ -129,52 +200,116 @@ public abstract class StorageProxy implements Store {
     // We may have queued updates that were received after a desync; discard any that are stale
     // with respect to the received model.
     syncState = SyncState.FULL;
-    while (updates.size() > 0 && updates.get(0).getInt(VERSION) <= version) {
-      updates.remove(0);
-    }
+    updates.skipTo(version + 1);
 
-    notify("sync", getModelForSync(), options -> options.keepSynced && options.notifySync);
+    notify(SYNC, getModelForSync(), syncObservers);
     processUpdates();
   }
 
-  void notify(String kind, PortableJson details, Predicate<Handle.Options> predicate) {
-    for (Map.Entry<Handle, Particle> observer : observers.entrySet()) {
-      if (predicate.test(observer.getKey().options)) {
-        observer.getKey().notify(kind, observer.getValue(), details);
+  /** Queues the event for every observer in {@code group}; the scheduler delivers it. */
+  void notify(String kind, PortableJson details, ObserverGroup group) {
+    for (int i = 0; i < group.size(); i++) {
+      scheduler.enqueue(group.particles.get(i), group.handles.get(i), kind, details);
+    }
+  }
+
+  /** Whether an observer of this proxy belongs to the particle with the given id. */
+  boolean isObserverParticle(String particleId) {
+    return particleId != null && observerParticleIds.containsKey(particleId);
+  }
+
+  private void registerGroups(Particle particle, Handle handle) {
+    Handle.Options options = handle.options;
+    if (options.notifyUpdate) {
+      updateObservers.add(handle, particle);
+      if (!options.keepSynced) {
+        unsyncedUpdateObservers.add(handle, particle);
+      } else if (options.coalesceUpdates) {
+        coalescedUpdateObservers.add(handle, particle);
+      } else {
+        syncedUpdateObservers.add(handle, particle);
       }
     }
+    if (options.keepSynced && options.notifySync) {
+      syncObservers.add(handle, particle);
+    }
+    if (options.notifyDesync) {
+      desyncObservers.add(handle, particle);
+    }
+    observerParticleIds.merge(handle.particleId, 1, Integer::sum);
+  }
+
+  private void unregisterGroups(Handle handle) {
+    for (ObserverGroup group :
+        new ObserverGroup[] {
+          updateObservers,
+          syncedUpdateObservers,
+          coalescedUpdateObservers,
+          unsyncedUpdateObservers,
+          syncObservers,
+          desyncObservers
+        }) {
+      group.remove(handle);
+    }
+    observerParticleIds.computeIfPresent(
+        handle.particleId, (id, count) -> count == 1 ? null : count - 1);
   }
 
   private void processUpdates() {
-    Predicate<PortableJson> updateIsNext =
-        update -> update.getInt(VERSION) == version + 1;
+    boolean coalesce = !coalescedUpdateObservers.isEmpty();
+    List<PortableJson> drained = coalesce ? new ArrayList<>() : null;
 
     // Consume all queued updates whose versions are monotonically increasing from our stored one.
-    while (updates.size() > 0 && updateIsNext.test(updates.get(0))) {
-      PortableJson update = updates.remove(0);
+    while (true) {
+      PortableJson update = version == null ? null : updates.pollNext();
+      if (update == null && barrier != null) {
+        // If we are a singleton waiting for a barriered set response then that set response *is*
+        // the next thing we're waiting for, regardless of version numbers.
+        PortableJson lowest = updates.peekLowest();
+        if (lowest != null
+            && lowest.hasKey("barrier")
+            && barrier.equals(lowest.getString("barrier"))) {
+          updates.skipTo(lowest.getInt(VERSION));
+          update = updates.pollNext();
+        }
+      }
+      if (update == null) {
+        break;
+      }
 
       // Fold the update into our stored model.
       PortableJson handleUpdate = processUpdate(update, true);
       version = update.getInt(VERSION);
 
       // Notify handles configured with keepSynced and notifyUpdates (non-keepSynced handles are
-      // notified as updates are received).
+      // notified as updates are received). Coalescing handles are notified once, below.
       if (handleUpdate != null) {
-        notify(UPDATE, handleUpdate, options -> options.keepSynced && options.notifyUpdate);
+        notify(UPDATE, handleUpdate, syncedUpdateObservers);
+        if (coalesce) {
+          drained.add(handleUpdate);
+        }
+      }
+    }
+    if (coalesce && !drained.isEmpty()) {
+      PortableJson merged = coalesceUpdates(drained);
+      if (merged != null) {
+        notify(UPDATE, merged, coalescedUpdateObservers);
       }
     }
 
     // If we still have update events queued, we must have received a future version are are now
     // desynchronized. Send a request for the full model and notify handles configured for it.
-    if (updates.size() > 0) {
+    // The same holds if updates were dropped because too many were queued.
+    if (!updates.isEmpty() || (version != null && updates.missedAfter(version))) {
       if (syncState != SyncState.NONE) {
         syncState = SyncState.NONE;
         port.synchronizeProxy(this, this::onSynchronize);
-        for (Map.Entry<Handle, Particle> observer : observers.entrySet()) {
-          Handle handle = observer.getKey();
-          if (handle.options.notifyDesync) {
-            scheduler.enqueue(observer.getValue(), handle, DESYNC, jsonParser.emptyObject());
-          }
+        for (int i = 0; i < desyncObservers.size(); i++) {
+          scheduler.enqueue(
+              desyncObservers.particles.get(i),
+              desyncObservers.handles.get(i),
+              DESYNC,
+              jsonParser.emptyObject());
         }
       }
     } else if (syncState != SyncState.FULL) {
@@ -183,6 +318,48 @@ public abstract class StorageProxy implements Store {
     }
   }
 
+  /** Number of update events currently waiting for an earlier version. */
+  public synchronized int bufferedUpdateCount() {
+    return updates.size();
+  }
+
+  /** Number of update events buffered because they arrived out of order or before a sync. */
+  public synchronized long updatesBufferedWhileDesynced() {
+    return updatesBufferedWhileDesynced;
+  }
+
+  /** Number of update events dropped because the reorder buffer was full. */
+  public synchronized long droppedUpdateCount() {
+    return updates.overflowCount();
+  }
+
+  /** Handles and their particles, in registration order. */
+  static class ObserverGroup {
+    final List<Handle> handles = new ArrayList<>();
+    final List<Particle> particles = new ArrayList<>();
+
+    int size() {
+      return handles.size();
+    }
+
+    boolean isEmpty() {
+      return handles.isEmpty();
+    }
+
+    void add(Handle handle, Particle particle) {
+      handles.add(handle);
+      particles.add(particle);
+    }
+
+    void remove(Handle handle) {
+      int index = handles.indexOf(handle);
+      if (index >= 0) {
+        handles.remove(index);
+        particles.remove(index);
+      }
+    }
+  }
+
   enum SyncState {
     NONE,
     PENDING,
@@ -7,13 +7,12 @@ public class StorageProxyFactory {
       String name,
       PECInnerPort port,
       PortableJsonParser jsonParser,
-      PortablePromiseFactory promiseFactory) {
+      PortablePromiseFactory promiseFactory,
+      StorageProxyScheduler scheduler) {
     if (type.isCollection()) {
-      return new CollectionProxy(id, type, port, name, jsonParser, promiseFactory);
+      return new CollectionProxy(id, type, port, name, jsonParser, promiseFactory, scheduler);
     }
-    // TODO: Uncomment when SingletonProxy is implemented.
-    // return new SingletonProxy(id, type, port, name);
-    throw new AssertionError("SingletonProxy not yet supported in Java.");
+    return new SingletonProxy(id, type, port, name, jsonParser, promiseFactory, scheduler);
   }
 
   private StorageProxyFactory() {}
@@ -1,18 +1,90 @@
 package arcs.api;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 // copied from storage-proxy.ts
+/**
+ * Delivers storage events to particles outside of the storage proxy's own call stack.
+ *
+ * <p>Particles with pending events take turns in the order they first had events queued: each
+ * turn delivers at most {@code eventsPerSlice} events of one particle, which then goes to the back
+ * of the line if it has more. A task stops after {@code maxEventsPerTask} events or {@code
+ * maxTaskNanos}, whichever comes first, and the rest is dispatched in a new task. A particle's
+ * events are always delivered in the order they were queued for each of its handles.
+ *
+ * <p>Events that a newer one makes irrelevant are dropped while they are still queued: a sync
+ * replaces the handle's pending updates and syncs, and a desync right behind a pending desync is
+ * not queued again.
+ *
+ * <p>Each handle's queue may be bounded with {@link #setQueueBound}; the {@link OverflowPolicy}
+ * decides what happens to an event that finds its handle's queue full.
+ *
+ * <p>By default tasks are microtasks of the promise factory, so everything runs on one thread.
+ * With a {@link DispatchExecutor} every particle becomes a serial lane instead: its slices run one
+ * at a time on the executor, while different particles' slices may run concurrently.
+ *
+ * <p>The time each event waits in the queue and the time its callback takes are recorded in
+ * {@link #getMetrics}, and callbacks slower than {@link #setSlowCallbackThreshold} are logged.
+ */
 public class StorageProxyScheduler {
+  public static final int DEFAULT_EVENTS_PER_SLICE = 16;
+  public static final int DEFAULT_MAX_EVENTS_PER_TASK = 256;
+  public static final long DEFAULT_SLOW_CALLBACK_NANOS = 50_000_000L;
+
+  /** What to do with an event for a handle whose queue is full. */
+  public enum OverflowPolicy {
+    /**
+     * Replace the handle's queue with a desync (if the handle wants those) and a sync of the
+     * proxy's current model. Handles that do not get syncs from a synced proxy fall back to
+     * {@link #DROP_OLDEST}.
+     */
+    RESYNC,
+    /** Drop the oldest queued event of the handle. */
+    DROP_OLDEST,
+    /**
+     * Hold back updates from the port while any handle's queue is full, see {@link #awaitRoom}.
+     * Events queued from lanes, e.g. by a particle writing to its own handle, never wait, as only
+     * the lanes drain the queues; if they overflow they are handled as for {@link #RESYNC}. Needs
+     * a {@link DispatchExecutor} and a {@link ProducerBlocker}. JVM only.
+     */
+    BLOCK
+  }
+
+  private static final String SYNC = "sync";
+  private static final String DESYNC = "desync";
+
   private boolean scheduled = false;
-  private Map<Particle, Map<Handle, List<Args>>> queues = new HashMap<>();
+  // Set while dispatch() runs; events queued by callbacks are picked up by the running loop.
+  private boolean dispatching = false;
+  // Queues of the particles with pending events, by particle.
+  private final Map<Particle, ParticleQueue> queues = new HashMap<>();
+  // The same queues in round-robin order; the head is dispatched next.
+  private final ArrayDeque<ParticleQueue> ready = new ArrayDeque<>();
   private PortablePromise.Resolver<?> idleResolver;
   private PortablePromise<Void> idle;
   private PortablePromiseFactory promiseFactory;
+  private int eventsPerSlice = DEFAULT_EVENTS_PER_SLICE;
+  private int maxEventsPerTask = DEFAULT_MAX_EVENTS_PER_TASK;
+  // 0 means no time limit.
+  private long maxTaskNanos = 0;
+  // If set, each particle's events are dispatched as a serial lane on this executor.
+  private DispatchExecutor executor;
+  private final SchedulerStats stats = new SchedulerStats(this);
+  // 0 disables slow callback logging.
+  private long slowCallbackNanos = DEFAULT_SLOW_CALLBACK_NANOS;
+  // 0 means unbounded.
+  private int maxEventsPerHandle = 0;
+  private OverflowPolicy overflowPolicy = OverflowPolicy.RESYNC;
+  private ProducerBlocker blocker;
+  private int peakHandleQueueDepth;
+  private long collapsedEvents;
+  private long overflowEvents;
 
   private static final Logger LOGGER = Logger.getLogger(StorageProxyScheduler.class.getName());
 
@@ -24,43 +96,286 @@ public class StorageProxyScheduler {
     String kind;
     Particle particle;
     PortableJson details;
+    final long enqueuedNanos;
 
     Args(String kind, Particle particle, PortableJson details) {
       this.kind = kind;
       this.particle = particle;
       this.details = details;
+      this.enqueuedNanos = System.nanoTime();
+    }
+  }
+
+  /** The pending events of one particle, per handle in the order the handles first had one. */
+  private static class ParticleQueue {
+    final Particle particle;
+    final SchedulerStats.ParticleStats stats;
+    final Map<Handle, ArrayDeque<Args>> byHandle = new LinkedHashMap<>();
+    int size;
+    // Whether a lane task for this particle is queued or running on the executor.
+    boolean running;
+
+    ParticleQueue(Particle particle, SchedulerStats.ParticleStats stats) {
+      this.particle = particle;
+      this.stats = stats;
+    }
+  }
+
+  /**
+   * Sets how many events of one particle are delivered per turn, and how many events or
+   * nanoseconds (0 for no limit) one task may take before the rest is deferred to a new task.
+   */
+  public void setBudget(int eventsPerSlice, int maxEventsPerTask, long maxTaskNanos) {
+    if (eventsPerSlice <= 0 || maxEventsPerTask <= 0 || maxTaskNanos < 0) {
+      throw new IllegalArgumentException("Invalid scheduler budget");
+    }
+    this.eventsPerSlice = eventsPerSlice;
+    this.maxEventsPerTask = maxEventsPerTask;
+    this.maxTaskNanos = maxTaskNanos;
+  }
+
+  /** Logs callbacks that take at least {@code nanos}; 0 turns logging off. */
+  public void setSlowCallbackThreshold(long nanos) {
+    if (nanos < 0) {
+      throw new IllegalArgumentException("Invalid slow callback threshold: " + nanos);
+    }
+    this.slowCallbackNanos = nanos;
+  }
+
+  public SchedulerMetrics getMetrics() {
+    return stats;
+  }
+
+  /**
+   * Dispatches on {@code executor}, one serial lane per particle, or on microtasks if null.
+   * Callbacks of different particles then run concurrently with each other and with the port;
+   * they may use their handles, since every {@link StorageProxy} locks itself. Only allowed while
+   * the scheduler is idle.
+   */
+  public synchronized void setExecutor(DispatchExecutor executor) {
+    if (busy()) {
+      throw new IllegalStateException("Cannot change the executor while events are pending");
+    }
+    if (executor == null && overflowPolicy == OverflowPolicy.BLOCK) {
+      throw new IllegalStateException("Blocking queues need an executor");
+    }
+    this.executor = executor;
+  }
+
+  /** Sets the blocker for {@link OverflowPolicy#BLOCK}. Only allowed while idle. */
+  public synchronized void setProducerBlocker(ProducerBlocker blocker) {
+    if (busy()) {
+      throw new IllegalStateException("Cannot change the blocker while events are pending");
     }
+    if (blocker == null && overflowPolicy == OverflowPolicy.BLOCK) {
+      throw new IllegalStateException("Blocking queues need a producer blocker");
+    }
+    this.blocker = blocker;
+  }
+
+  /**
+   * Bounds every handle's queue to {@code maxEventsPerHandle} events, at least 2, or removes the
+   * bound if 0. {@link OverflowPolicy#BLOCK} requires the executor and blocker to be set first.
+   */
+  public synchronized void setQueueBound(int maxEventsPerHandle, OverflowPolicy policy) {
+    if (maxEventsPerHandle < 0 || maxEventsPerHandle == 1) {
+      throw new IllegalArgumentException("Invalid queue bound: " + maxEventsPerHandle);
+    }
+    if (policy == OverflowPolicy.BLOCK && (executor == null || blocker == null)) {
+      throw new IllegalStateException("Blocking queues need an executor and a producer blocker");
+    }
+    this.maxEventsPerHandle = maxEventsPerHandle;
+    this.overflowPolicy = policy;
   }
 
-  // TODO: break apart args here, sync events should flush the queue.
+  /**
+   * Queues an event for {@code handle}. Called by the handle's proxy with the proxy's lock held,
+   * so the proxy may be read here without taking its lock after the scheduler's.
+   */
   void enqueue(Particle particle, Handle handle, String kind, PortableJson details) {
-    if (!queues.containsKey(particle)) {
-      queues.put(particle, new HashMap<>());
+    ParticleQueue queue;
+    synchronized (this) {
+      queue = queues.get(particle);
+      if (queue == null) {
+        queue = new ParticleQueue(particle, stats.statsFor(particle));
+        queues.put(particle, queue);
+        if (executor == null) {
+          ready.addLast(queue);
+        }
+      }
+      ArrayDeque<Args> handleQueue = queue.byHandle.get(handle);
+      if (handleQueue == null) {
+        handleQueue = new ArrayDeque<>();
+        queue.byHandle.put(handle, handleQueue);
+      }
+      if (kind.equals(DESYNC)
+          && !handleQueue.isEmpty()
+          && handleQueue.peekLast().kind.equals(DESYNC)) {
+        collapsedEvents++;
+        return;
+      }
+      if (kind.equals(SYNC)) {
+        int dropped = collapseForSync(handleQueue);
+        if (dropped > 0) {
+          queue.size -= dropped;
+          collapsedEvents += dropped;
+        }
+      }
+      if (needsRoom(handleQueue, kind)) {
+        if (overflowPolicy != OverflowPolicy.DROP_OLDEST && canResync(handle)) {
+          overflowEvents += handleQueue.size() + 1;
+          queue.size -= handleQueue.size();
+          handleQueue.clear();
+          if (handle.options.notifyDesync) {
+            append(queue, handleQueue, new Args(DESYNC, particle, handle.jsonParser.emptyObject()));
+          }
+          kind = SYNC;
+          details = handle.storage.getModelForSync();
+        } else {
+          overflowEvents++;
+          handleQueue.pollFirst();
+          queue.size--;
+        }
+      }
+      append(queue, handleQueue, new Args(kind, particle, details));
+      if (executor != null) {
+        if (queue.running) {
+          return;
+        }
+        queue.running = true;
+      }
+    }
+    if (executor != null) {
+      startLane(queue);
+    } else {
+      schedule();
+    }
+  }
+
+  /**
+   * For {@link OverflowPolicy#BLOCK}, waits until no handle's queue is full. The port calls this
+   * before applying an update, without holding any proxy's lock, so that the lanes can make
+   * progress meanwhile. Returns at once on a lane thread or under the other policies.
+   */
+  void awaitRoom() {
+    synchronized (this) {
+      if (overflowPolicy != OverflowPolicy.BLOCK || blocker.onLane()) {
+        return;
+      }
+      while (hasFullQueue()) {
+        blocker.await(this);
+      }
+    }
+  }
+
+  private boolean hasFullQueue() {
+    for (ParticleQueue queue : queues.values()) {
+      for (ArrayDeque<Args> handleQueue : queue.byHandle.values()) {
+        if (handleQueue.size() >= maxEventsPerHandle) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private void append(ParticleQueue queue, ArrayDeque<Args> handleQueue, Args args) {
+    handleQueue.addLast(args);
+    queue.size++;
+    if (handleQueue.size() > peakHandleQueueDepth) {
+      peakHandleQueueDepth = handleQueue.size();
+    }
+  }
+
+  /** Whether queuing {@code kind} would take {@code handleQueue} over the bound. */
+  private boolean needsRoom(ArrayDeque<Args> handleQueue, String kind) {
+    if (maxEventsPerHandle == 0 || handleQueue.size() < maxEventsPerHandle) {
+      return false;
+    }
+    // A sync leaves at most a desync queued, and a desync behind a desync is collapsed.
+    return !kind.equals(SYNC)
+        && !(kind.equals(DESYNC) && handleQueue.peekLast().kind.equals(DESYNC));
+  }
+
+  /** Whether a sync of the proxy's current model can stand in for the handle's pending events. */
+  private static boolean canResync(Handle handle) {
+    return handle.options.keepSynced
+        && handle.options.notifySync
+        && handle.storage.syncState == StorageProxy.SyncState.FULL;
+  }
+
+  /** Number of events queued for {@code particle}, or for all particles if null. */
+  synchronized int pendingEvents(Particle particle) {
+    if (particle != null) {
+      ParticleQueue queue = queues.get(particle);
+      return queue == null ? 0 : queue.size;
+    }
+    int pending = 0;
+    for (ParticleQueue queue : queues.values()) {
+      pending += queue.size;
     }
-    Map<Handle, List<Args>> byHandle = queues.get(particle);
-    if (!byHandle.containsKey(handle)) {
-      byHandle.put(handle, new ArrayList<>());
+    return pending;
+  }
+
+  synchronized int peakHandleQueueDepth() {
+    return peakHandleQueueDepth;
+  }
+
+  synchronized long collapsedEvents() {
+    return collapsedEvents;
+  }
+
+  synchronized long overflowEvents() {
+    return overflowEvents;
+  }
+
+  /**
+   * Drops the latencies recorded for {@code particle}, which is torn down. Events still queued
+   * for it are delivered, but no longer recorded.
+   */
+  public void forget(Particle particle) {
+    stats.forget(particle);
+  }
+
+  /**
+   * Drops the pending events a new sync supersedes: all updates and syncs, and all desyncs but
+   * the first, which are back to back once the rest is gone. Returns how many were dropped.
+   */
+  private static int collapseForSync(ArrayDeque<Args> pending) {
+    int dropped = 0;
+    boolean keptDesync = false;
+    for (Iterator<Args> it = pending.iterator(); it.hasNext(); ) {
+      Args args = it.next();
+      if (args.kind.equals(DESYNC) && !keptDesync) {
+        keptDesync = true;
+      } else {
+        it.remove();
+        dropped++;
+      }
     }
-    List<Args> queue = byHandle.get(handle);
-    queue.add(new Args(kind, particle, details));
-    schedule();
+    return dropped;
   }
 
-  public boolean busy() {
-    return queues.size() > 0;
+  public synchronized boolean busy() {
+    return !queues.isEmpty();
   }
 
   private void updateIdle() {
-    if (idleResolver != null && !busy()) {
-      idleResolver.resolve(null);
+    PortablePromise.Resolver<?> resolver;
+    synchronized (this) {
+      if (idleResolver == null || busy()) {
+        return;
+      }
+      resolver = idleResolver;
       idle = null;
       idleResolver = null;
     }
+    resolver.resolve(null);
   }
 
-  public PortablePromise<Void> isIdle() {
+  public synchronized PortablePromise<Void> isIdle() {
     if (!busy()) {
-      return promiseFactory.newPromise(null);
+      return promiseFactory.newPromise((Void) null);
     }
     if (idle == null) {
       idle = promiseFactory.newPromise((resolver, rejecter) -> idleResolver = resolver);
@@ -68,13 +383,45 @@ public class StorageProxyScheduler {
     return idle;
   }
 
+  private void startLane(ParticleQueue queue) {
+    DispatchExecutor laneExecutor = executor;
+    laneExecutor.execute(() -> runLane(queue, laneExecutor));
+  }
+
+  /** Runs one slice of a particle's lane, then requeues the lane if it has more events. */
+  private void runLane(ParticleQueue queue, DispatchExecutor laneExecutor) {
+    ProducerBlocker laneBlocker;
+    synchronized (this) {
+      laneBlocker = blocker;
+    }
+    if (laneBlocker != null) {
+      laneBlocker.runAsLane(() -> dispatchSlice(queue, eventsPerSlice));
+    } else {
+      dispatchSlice(queue, eventsPerSlice);
+    }
+    boolean more;
+    synchronized (this) {
+      more = queue.size > 0;
+      if (!more) {
+        queue.running = false;
+        queues.remove(queue.particle);
+      }
+    }
+    if (more) {
+      // Requeue behind the other lanes' tasks rather than looping, so the pool stays fair.
+      laneExecutor.execute(() -> runLane(queue, laneExecutor));
+    } else {
+      updateIdle();
+    }
+  }
+
   private void schedule() {
-    if (scheduled) {
+    if (scheduled || dispatching) {
       return;
     }
     scheduled = true;
     promiseFactory
-        .newPromise(null)
+        .newPromise((Void) null)
         .then(
             Void -> {
               scheduled = false;
@@ -83,22 +430,79 @@ public class StorageProxyScheduler {
   }
 
   private void dispatch() {
-    // TODO: should we process just one particle per task?
-    while (queues.size() > 0) {
-      Particle particle = queues.keySet().toArray(new Particle[0])[0];
-      Map<Handle, List<Args>> byHandle = queues.get(particle);
-      queues.remove(particle);
-      for (Map.Entry<Handle, List<Args>> entry : byHandle.entrySet()) {
-        for (Args args : entry.getValue()) {
-          try {
-            entry.getKey().notify(args.kind, args.particle, args.details);
-          } catch (Throwable e) {
-            LOGGER.info("Error dispatching to particle" + e.toString());
-            // TODO: report system exception
-          }
+    long deadline = maxTaskNanos > 0 ? System.nanoTime() + maxTaskNanos : 0;
+    int dispatched = 0;
+    dispatching = true;
+    try {
+      while (!ready.isEmpty()) {
+        if (dispatched >= maxEventsPerTask || (deadline != 0 && System.nanoTime() >= deadline)) {
+          break;
+        }
+        ParticleQueue queue = ready.pollFirst();
+        dispatched += dispatchSlice(queue, Math.min(eventsPerSlice, maxEventsPerTask - dispatched));
+        if (queue.size > 0) {
+          ready.addLast(queue);
+        } else {
+          queues.remove(queue.particle);
+        }
+      }
+    } finally {
+      dispatching = false;
+    }
+    if (busy()) {
+      // Yield; the remaining events go out in the next task.
+      schedule();
+    } else {
+      updateIdle();
+    }
+  }
+
+  /** Delivers up to {@code limit} events of one particle; returns how many it delivered. */
+  private int dispatchSlice(ParticleQueue queue, int limit) {
+    int dispatched = 0;
+    while (dispatched < limit) {
+      Handle handle;
+      Args args;
+      synchronized (this) {
+        if (queue.size == 0) {
+          break;
+        }
+        // Callbacks may queue events for new handles, so the map is not iterated across calls.
+        Map.Entry<Handle, ArrayDeque<Args>> entry = queue.byHandle.entrySet().iterator().next();
+        handle = entry.getKey();
+        args = entry.getValue().pollFirst();
+        if (entry.getValue().isEmpty()) {
+          queue.byHandle.remove(handle);
         }
+        queue.size--;
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+          blocker.signalAll(this);
+        }
+      }
+      dispatched++;
+      long start = System.nanoTime();
+      try {
+        handle.notify(args.kind, args.particle, args.details);
+      } catch (Throwable e) {
+        LOGGER.log(
+            Level.WARNING,
+            "Error dispatching " + args.kind + " to particle " + args.particle.getName(),
+            e);
+        // TODO: report system exception
+      }
+      long elapsed = System.nanoTime() - start;
+      queue.stats.record(args.kind, start - args.enqueuedNanos, elapsed);
+      if (slowCallbackNanos > 0 && elapsed >= slowCallbackNanos) {
+        LOGGER.warning(
+            "Slow "
+                + args.kind
+                + " callback in particle "
+                + args.particle.getName()
+                + ": "
+                + elapsed / 1_000_000
+                + " ms");
       }
     }
-    updateIdle();
+    return dispatched;
   }
 }
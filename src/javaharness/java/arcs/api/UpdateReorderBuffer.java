@@ -0,0 +1,198 @@
+package arcs.api;
+
+/**
+ * Holds versioned update events until they can be applied in order.
+ *
+ * <p>Events are kept in a ring indexed by version, starting at the next version the proxy expects
+ * ({@link #nextVersion}). Inserting an event and taking the next one are O(1). The ring grows by
+ * doubling up to {@code maxCapacity}; events further ahead than that are dropped, and the highest
+ * dropped version is remembered so the owner knows it must resynchronize past it.
+ */
+class UpdateReorderBuffer<T> {
+  static final int DEFAULT_MAX_CAPACITY = 1024;
+  private static final int INITIAL_CAPACITY = 8;
+
+  enum Result {
+    BUFFERED,
+    STALE,
+    OVERFLOW
+  }
+
+  private final int maxCapacity;
+  private Object[] slots = new Object[INITIAL_CAPACITY];
+  private int[] versions = new int[INITIAL_CAPACITY];
+  // The version stored in slot (v & mask) is only valid if that slot is non-null.
+  private int mask = INITIAL_CAPACITY - 1;
+  private int nextVersion;
+  private boolean anchored;
+  private int size;
+  // Highest version dropped on overflow, or 0 if none are outstanding.
+  private int missedVersion;
+  private long overflowCount;
+
+  UpdateReorderBuffer(int maxCapacity) {
+    if (maxCapacity < INITIAL_CAPACITY || Integer.bitCount(maxCapacity) != 1) {
+      throw new IllegalArgumentException(
+          "maxCapacity must be a power of two >= " + INITIAL_CAPACITY);
+    }
+    this.maxCapacity = maxCapacity;
+  }
+
+  /** The version the next in-order event must have. */
+  int nextVersion() {
+    return nextVersion;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Total number of events dropped because they were too far ahead. */
+  long overflowCount() {
+    return overflowCount;
+  }
+
+  /** Whether an event newer than {@code version} was dropped and has not been caught up with. */
+  boolean missedAfter(int version) {
+    return missedVersion > version;
+  }
+
+  Result insert(int version, T event) {
+    if (!anchored) {
+      // Nothing is known yet about the expected version; start at the first event seen.
+      anchor(version);
+    }
+    if (version < nextVersion) {
+      return Result.STALE;
+    }
+    int offset = version - nextVersion;
+    if (offset > mask) {
+      if (offset >= maxCapacity) {
+        overflowCount++;
+        missedVersion = Math.max(missedVersion, version);
+        return Result.OVERFLOW;
+      }
+      grow(offset + 1);
+    }
+    int index = version & mask;
+    if (slots[index] == null) {
+      size++;
+    }
+    slots[index] = event;
+    versions[index] = version;
+    return Result.BUFFERED;
+  }
+
+  /** Returns the event for {@link #nextVersion} without removing it, or null if it is missing. */
+  @SuppressWarnings("unchecked")
+  T peekNext() {
+    return size == 0 ? null : (T) slots[nextVersion & mask];
+  }
+
+  /** Removes and returns the event for {@link #nextVersion}, or null if it is missing. */
+  T pollNext() {
+    T event = peekNext();
+    if (event != null) {
+      slots[nextVersion & mask] = null;
+      size--;
+      nextVersion++;
+    }
+    return event;
+  }
+
+  /**
+   * Returns the buffered event with the lowest version, or null if empty. Scans the ring, so it is
+   * only meant for the rare case where the next event is missing.
+   */
+  @SuppressWarnings("unchecked")
+  T peekLowest() {
+    if (size == 0) {
+      return null;
+    }
+    for (int offset = 0; offset <= mask; offset++) {
+      int index = (nextVersion + offset) & mask;
+      if (slots[index] != null) {
+        return (T) slots[index];
+      }
+    }
+    throw new AssertionError("UpdateReorderBuffer lost track of its events");
+  }
+
+  /**
+   * Makes {@code version} the next expected version, dropping every event older than it. Moving
+   * forward is O(skipped versions); moving back (only possible before the owner knew its version)
+   * re-inserts the buffered events.
+   */
+  @SuppressWarnings("unchecked")
+  void skipTo(int version) {
+    if (!anchored) {
+      anchor(version);
+      return;
+    }
+    if (version < nextVersion) {
+      Object[] oldSlots = slots;
+      int[] oldVersions = versions;
+      slots = new Object[oldSlots.length];
+      versions = new int[oldSlots.length];
+      size = 0;
+      nextVersion = version;
+      for (int i = 0; i < oldSlots.length; i++) {
+        if (oldSlots[i] != null) {
+          insert(oldVersions[i], (T) oldSlots[i]);
+        }
+      }
+      return;
+    }
+    if (version - nextVersion > mask) {
+      clearSlots();
+    } else {
+      for (int v = nextVersion; v < version; v++) {
+        int index = v & mask;
+        if (slots[index] != null) {
+          slots[index] = null;
+          size--;
+        }
+      }
+    }
+    nextVersion = version;
+    if (missedVersion < version) {
+      missedVersion = 0;
+    }
+  }
+
+  private void anchor(int version) {
+    anchored = true;
+    nextVersion = version;
+  }
+
+  private void clearSlots() {
+    for (int i = 0; i <= mask; i++) {
+      slots[i] = null;
+    }
+    size = 0;
+  }
+
+  private void grow(int required) {
+    int capacity = slots.length;
+    while (capacity < required) {
+      capacity *= 2;
+    }
+    Object[] newSlots = new Object[capacity];
+    int[] newVersions = new int[capacity];
+    int newMask = capacity - 1;
+    for (int i = 0; i < slots.length; i++) {
+      if (slots[i] != null) {
+        int index = versions[i] & newMask;
+        newSlots[index] = slots[i];
+        newVersions[index] = versions[i];
+      }
+    }
+    slots = newSlots;
+    versions = newVersions;
+    mask = newMask;
+  }
+}
@@ -0,0 +1,66 @@
+package arcs.crdt;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide interning table for CRDT actor names. Every actor is assigned a small, dense index
+ * the first time it is seen, so that clocks can be stored as primitive arrays keyed by index
+ * instead of as string-keyed maps.
+ *
+ * <p>Lookups ({@link #lookup}, {@link #nameOf} and {@link #intern} of a known actor) take no lock;
+ * only assigning a new index does. Entries are never removed: indices live on in clocks and
+ * encoded models, so the table retains every actor name the process has seen. Actors are the ids
+ * of writers (particles and stores), so it grows with the number of distinct writers, not with
+ * the number of operations.
+ */
+final class ActorTable {
+  private static final Map<String, Integer> indices = new ConcurrentHashMap<>();
+  // Names by index. A slot is written once, before the index is published in `indices`; the
+  // array is replaced by a larger copy when full and republished after every write.
+  private static volatile String[] names = new String[16];
+  private static int size; // Guarded by ActorTable.class.
+
+  /** Returns the index for the given actor, assigning a new one if needed. */
+  static int intern(String actor) {
+    Integer index = indices.get(actor);
+    return index != null ? index : assign(actor);
+  }
+
+  /** Returns the index for the given actor, or -1 if the actor was never interned. */
+  static int lookup(String actor) {
+    Integer index = indices.get(actor);
+    return index == null ? -1 : index;
+  }
+
+  static String nameOf(int index) {
+    String[] current = names;
+    if (index < 0 || index >= current.length || current[index] == null) {
+      throw new IndexOutOfBoundsException("No actor with index " + index);
+    }
+    return current[index];
+  }
+
+  static synchronized int size() {
+    return size;
+  }
+
+  private static synchronized int assign(String actor) {
+    Integer index = indices.get(actor);
+    if (index != null) {
+      return index;
+    }
+    String[] current = names;
+    if (size == current.length) {
+      current = Arrays.copyOf(current, current.length * 2);
+    }
+    current[size] = actor;
+    // The volatile write publishes the slot to nameOf before any reader can learn the index.
+    names = current;
+    indices.put(actor, size);
+    return size++;
+  }
+
+  private ActorTable() {}
+}
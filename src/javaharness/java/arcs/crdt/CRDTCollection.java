@@ -1,6 +1,9 @@
 package arcs.crdt;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -8,6 +11,14 @@ import java.util.stream.Collectors;
 
 public class CRDTCollection<T extends Referenceable> implements CollectionModel<T> {
   private CollectionData<T> model;
+  // While removals are tracked: ids removed locally (by an operation or a merge), with the clock
+  // they were removed at, oldest first. Removes do not advance the clock, so they are shipped in
+  // every delta until acknowledged.
+  private final Map<String, Removal> removals = new LinkedHashMap<>();
+  private boolean trackRemovals;
+  // Number of removals recorded so far; each removal is numbered with the count after it.
+  private long removalSequence;
+  private CollectionOperationLog<T> log;
 
   public CRDTCollection() {
     model = new CollectionData<>();
@@ -23,15 +34,41 @@ public class CRDTCollection<T extends Referenceable> implements CollectionModel<
 
   @Override
   public MergeResult<?> merge(CRDTData other) {
+    if (other instanceof CollectionDelta) {
+      @SuppressWarnings("unchecked")
+      CollectionDelta<T> delta = (CollectionDelta<T>) other;
+      return mergeDelta(delta);
+    }
     if (!(other instanceof CollectionData)) {
       throw new AssertionError("Cannot merge `other`");
     }
     @SuppressWarnings("unchecked")
     CollectionData<T> otherModel = (CollectionData<T>) other;
-    Map<String, VersionedValue<T>> newValues = mergeItems(model, otherModel);
-    VersionMap newVersion = mergeVersions(model.version, otherModel.version);
+    List<String> removedIds = new ArrayList<>();
+    Map<String, VersionedValue<T>> newValues = mergeItems(model, otherModel, removedIds);
+    return completeMerge(newValues, removedIds, otherModel.version);
+  }
+
+  /**
+   * Installs the result of merging a full model with clock {@code otherVersion}: the merged
+   * entries and the ids of local entries the other model removed.
+   */
+  MergeResult<?> completeMerge(
+      Map<String, VersionedValue<T>> newValues, List<String> removedIds, VersionMap otherVersion) {
+    if (!removals.isEmpty()) {
+      removals.keySet().removeIf(newValues::containsKey);
+    }
+    if (trackRemovals && !removedIds.isEmpty()) {
+      VersionMap removedAt = new VersionMap(otherVersion);
+      for (String id : removedIds) {
+        recordRemoval(id, removedAt);
+      }
+    }
     model.values = newValues;
-    model.version = newVersion;
+    model.version.mergeWith(otherVersion);
+    if (log != null) {
+      log.recordModelChange(model);
+    }
     // For now this is always returning a model change.
     CollectionChange<T> change = new CollectionChange<>();
     change.changeType = ChangeType.MODEL;
@@ -39,6 +76,167 @@ public class CRDTCollection<T extends Referenceable> implements CollectionModel<
     return new MergeResult<>(change, change);
   }
 
+  /**
+   * Merges the entries changed since {@code delta.since}. Only the entries in the delta are
+   * visited, and the returned model change lists just the operations that took effect. The other
+   * change is always empty: a peer catches up by requesting a delta of its own.
+   *
+   * @throws IllegalStateException if this collection's version does not dominate {@code
+   *     delta.since}: the delta would skip entries it has not seen. Merge the sender's full model
+   *     instead.
+   */
+  public MergeResult<?> mergeDelta(CollectionDelta<T> delta) {
+    if (!model.version.dominates(delta.since)) {
+      throw new IllegalStateException(
+          "Delta since " + delta.since + " cannot be merged at version " + model.version);
+    }
+    List<CRDTOperation> effective = new ArrayList<>();
+    for (VersionedValue<T> v2 : delta.values.values()) {
+      String id = v2.value.getId();
+      VersionedValue<T> v1 = model.values.get(id);
+      if (v1 != null) {
+        if (v1.version.dominates(v2.version)) {
+          continue;
+        }
+        VersionMap merged = VersionMap.merge(v1.version, v2.version);
+        model.values.put(id, new VersionedValue<>(v2.value, merged));
+        effective.add(
+            new CollectionOperation<>(CollectionOperation.Type.ADD, v2.value, merged, ""));
+      } else if (!model.version.dominates(v2.version)) {
+        model.values.put(id, new VersionedValue<>(v2.value, v2.version));
+        removals.remove(id);
+        effective.add(
+            new CollectionOperation<>(CollectionOperation.Type.ADD, v2.value, v2.version, ""));
+      }
+    }
+    for (Map.Entry<String, VersionMap> removal : delta.removed.entrySet()) {
+      VersionedValue<T> v1 = model.values.get(removal.getKey());
+      if (v1 != null && removal.getValue().dominates(v1.version)) {
+        model.values.remove(removal.getKey());
+        recordRemoval(removal.getKey(), removal.getValue());
+        effective.add(
+            new CollectionOperation<>(
+                CollectionOperation.Type.REMOVE, v1.value, removal.getValue(), ""));
+      }
+    }
+    model.version.mergeWith(delta.version);
+    if (log != null && !effective.isEmpty()) {
+      // Merged entries carry combined clocks that cannot be replayed as operations.
+      log.recordModelChange(model);
+    }
+
+    CollectionChange<T> modelChange = new CollectionChange<>();
+    modelChange.changeType = ChangeType.OPERATIONS;
+    modelChange.operations = Optional.of(effective.toArray(new CRDTOperation[0]));
+    CollectionChange<T> otherChange = new CollectionChange<>();
+    otherChange.changeType = ChangeType.OPERATIONS;
+    otherChange.operations = Optional.of(new CRDTOperation[0]);
+    return new MergeResult<>(modelChange, otherChange);
+  }
+
+  /**
+   * Returns the entries whose clocks are not dominated by {@code since}, plus the removals not yet
+   * acknowledged. Requires removal tracking (see {@link #setRemovalTracking}), started before the
+   * peer took {@code since}; otherwise the delta could miss removals.
+   */
+  public CollectionDelta<T> getDelta(VersionMap since) {
+    if (!trackRemovals) {
+      throw new IllegalStateException("getDelta requires removal tracking");
+    }
+    CollectionDelta<T> delta = new CollectionDelta<>(new VersionMap(since));
+    for (VersionedValue<T> value : model.values.values()) {
+      if (!since.dominates(value.version)) {
+        delta.values.put(value.value.getId(), value);
+      }
+    }
+    for (Map.Entry<String, Removal> removal : removals.entrySet()) {
+      delta.removed.put(removal.getKey(), removal.getValue().clock);
+    }
+    delta.version = new VersionMap(model.version);
+    delta.removalSequence = removalSequence;
+    return delta;
+  }
+
+  /**
+   * Drops from every per-entry clock the actors whose counters are dominated by {@code stable}.
+   *
+   * <p>{@code stable} must be dominated by the version of every peer this collection merges with
+   * or receives removes from (e.g. a version all peers have acknowledged). Every dominance check
+   * against such versions gives the same answer with or without the dropped actors, so merge
+   * results do not change.
+   *
+   * @return the number of actor counters dropped.
+   */
+  public int compact(VersionMap stable) {
+    int dropped = 0;
+    for (Map.Entry<String, VersionedValue<T>> entry : model.values.entrySet()) {
+      VersionedValue<T> value = entry.getValue();
+      VersionMap compacted = value.version.withoutDominated(stable);
+      if (compacted != value.version) {
+        dropped += value.version.size() - compacted.size();
+        entry.setValue(new VersionedValue<>(value.value, compacted));
+      }
+    }
+    if (log != null && dropped > 0) {
+      // Later operations are checked against the compacted clocks, so replay starts from here.
+      log.recordModelChange(model);
+    }
+    return dropped;
+  }
+
+  /** Returns the distribution of per-entry clock widths, bucketed up to {@code maxBucket}. */
+  public ClockWidthMetrics clockWidthMetrics(int maxBucket) {
+    int[] histogram = new int[maxBucket + 1];
+    long totalWidth = 0;
+    int maxWidth = 0;
+    for (VersionedValue<T> value : model.values.values()) {
+      int width = value.version.size();
+      totalWidth += width;
+      maxWidth = Math.max(maxWidth, width);
+      histogram[Math.min(width, maxBucket)]++;
+    }
+    return new ClockWidthMetrics(model.values.size(), totalWidth, maxWidth, histogram);
+  }
+
+  /**
+   * Starts or stops recording removals for {@link #getDelta}. Removals are only recorded while
+   * tracking is on, and stopping it drops the recorded ones.
+   */
+  public void setRemovalTracking(boolean track) {
+    trackRemovals = track;
+    if (!track) {
+      removals.clear();
+    }
+  }
+
+  /**
+   * Drops the removals shipped in deltas up to and including the one with the given {@link
+   * CollectionDelta#getRemovalSequence}. Call once every peer has merged that delta; with several
+   * peers, pass the lowest sequence any of them has acknowledged.
+   *
+   * @return the number of removals dropped.
+   */
+  public int acknowledgeRemovals(long sequence) {
+    int dropped = 0;
+    Iterator<Removal> iterator = removals.values().iterator();
+    while (iterator.hasNext() && iterator.next().sequence <= sequence) {
+      iterator.remove();
+      dropped++;
+    }
+    return dropped;
+  }
+
+  /**
+   * Starts recording every accepted operation into {@code log}, beginning with a snapshot of the
+   * current model. Pass null to stop recording.
+   */
+  public void setOperationLog(CollectionOperationLog<T> log) {
+    this.log = log;
+    if (log != null) {
+      log.restart(model);
+    }
+  }
+
   @Override
   public boolean applyOperation(CRDTOperation op) {
     if (!(op instanceof CollectionOperation)) {
@@ -46,13 +244,98 @@ public class CRDTCollection<T extends Referenceable> implements CollectionModel<
     }
     @SuppressWarnings("unchecked")
     CollectionOperation<T> operation = (CollectionOperation<T>) op;
+    boolean accepted;
     switch (operation.type) {
       case ADD:
-        return add(operation.added.get(), operation.actor, operation.clock);
+        accepted = add(operation.added.get(), operation.actor, operation.clock);
+        break;
       case REMOVE:
-        return remove(operation.removed.get(), operation.actor, operation.clock);
+        accepted = remove(operation.removed.get(), operation.actor, operation.clock);
+        break;
+      default:
+        throw new AssertionError("Op " + operation.type + " not supported");
+    }
+    if (accepted && log != null) {
+      T value =
+          operation.type == CollectionOperation.Type.ADD
+              ? operation.added.get()
+              : operation.removed.get();
+      // The caller owns the operation clock, so the log keeps its own copy.
+      log.record(
+          new CollectionOperation<>(
+              operation.type, value, new VersionMap(operation.clock), operation.actor),
+          model);
+    }
+    return accepted;
+  }
+
+  /**
+   * Applies every operation of {@code batch} in order, with the same rules as {@link
+   * #applyOperation}. The current clock of an actor is looked up once per run of consecutive
+   * operations by that actor, and the outcome of each operation is recorded in the batch.
+   *
+   * @return the number of accepted operations.
+   */
+  public int applyBatch(CollectionBatch<T> batch) {
+    int acceptedCount = 0;
+    String runActor = null;
+    int runClock = 0;
+    for (int i = 0; i < batch.size; i++) {
+      String actor = batch.actors[i];
+      if (runActor == null || !runActor.equals(actor)) {
+        if (runActor != null) {
+          model.version.put(runActor, runClock);
+        }
+        runActor = actor;
+        runClock = model.version.getOrDefault(actor, 0);
+      }
+      T value = batch.get(i);
+      boolean accepted;
+      VersionMap clock = batch.clocks[i];
+      if (clock == null) {
+        int counter = batch.counters[i] == CollectionBatch.NEXT ? runClock + 1 : batch.counters[i];
+        accepted = counter == runClock + 1;
+        if (accepted) {
+          runClock = counter;
+          VersionedValue<T> previous = model.values.get(value.getId());
+          VersionMap version =
+              previous == null ? VersionMap.of() : new VersionMap(previous.version);
+          version.put(actor, counter);
+          store(value, version);
+          if (log != null) {
+            // Snapshots may be taken while recording, so the model clock must be current.
+            model.version.put(actor, runClock);
+            log.record(
+                new CollectionOperation<>(
+                    CollectionOperation.Type.ADD, value, VersionMap.of(actor, counter), actor),
+                model);
+          }
+        }
+      } else {
+        VersionedValue<T> existing = model.values.get(value.getId());
+        accepted =
+            existing != null
+                && clock.getOrDefault(actor, 0) == runClock
+                && clock.dominates(existing.version);
+        if (accepted) {
+          // Batch clocks are not copied; callers hand over ownership.
+          drop(value.getId(), clock);
+          if (log != null) {
+            log.record(
+                new CollectionOperation<>(CollectionOperation.Type.REMOVE, value, clock, actor),
+                model);
+          }
+        }
+      }
+      batch.accepted[i] = accepted;
+      if (accepted) {
+        acceptedCount++;
+      }
+    }
+    if (runActor != null) {
+      model.version.put(runActor, runClock);
     }
-    throw new AssertionError("Op " + operation.type + " not supported");
+    return acceptedCount;
   }
 
   @Override
@@ -73,17 +356,16 @@ public class CRDTCollection<T extends Referenceable> implements CollectionModel<
       return false;
     }
     this.model.version.put(key, version.getOrDefault(key, 0));
-    VersionMap previousVersion =
-        model.values.containsKey(value.getId())
-            ? model.values.get(value.getId()).version
-            : VersionMap.of();
-    model.values.put(
-        value.getId(), new VersionedValue<>(value, mergeVersions(version, previousVersion)));
+    VersionedValue<T> previous = model.values.get(value.getId());
+    store(
+        value,
+        previous == null ? new VersionMap(version) : VersionMap.merge(version, previous.version));
     return true;
   }
 
   private boolean remove(T value, String key, VersionMap version) {
-    if (!this.model.values.containsKey(value.getId())) {
+    VersionedValue<T> existing = model.values.get(value.getId());
+    if (existing == null) {
       return false;
     }
     int clockValue = version.getOrDefault(key, 0);
@@ -93,58 +375,89 @@ public class CRDTCollection<T extends Referenceable> implements CollectionModel<
       return false;
     }
     // Cannot remove an element unless version is higher for all other actors as well.
-    if (!dominates(version, model.values.get(value.getId()).version)) {
+    if (!version.dominates(existing.version)) {
       return false;
     }
     model.version.put(key, clockValue);
-    model.values.remove(value.getId());
+    drop(value.getId(), new VersionMap(version));
     return true;
   }
 
+  private void store(T value, VersionMap version) {
+    removals.remove(value.getId());
+    model.values.put(value.getId(), new VersionedValue<>(value, version));
+  }
+
+  private void drop(String id, VersionMap clock) {
+    model.values.remove(id);
+    recordRemoval(id, clock);
+  }
+
+  private void recordRemoval(String id, VersionMap clock) {
+    if (trackRemovals) {
+      // Re-inserted, so that the map stays ordered by sequence.
+      removals.remove(id);
+      removals.put(id, new Removal(clock, ++removalSequence));
+    }
+  }
+
   public int nextVersion(String key) {
     return model.version.getOrDefault(key, 0) + 1;
   }
 
-  private Map<String, VersionedValue<T>> mergeItems(
-      CollectionData<T> data1, CollectionData<T> data2) {
+  private static <T extends Referenceable> Map<String, VersionedValue<T>> mergeItems(
+      CollectionData<T> data1, CollectionData<T> data2, List<String> removedIds) {
     Map<String, VersionedValue<T>> merged = new HashMap<>();
     for (VersionedValue<T> v2 : data2.values.values()) {
-      if (model.values.containsKey(v2.value.getId())) {
-        merged.put(
-            v2.value.getId(),
-            new VersionedValue<>(
-                v2.value, mergeVersions(model.values.get(v2.value.getId()).version, v2.version)));
-      } else if (!dominates(data1.version, v2.version)) {
-        merged.put(v2.value.getId(), new VersionedValue<>(v2.value, v2.version));
+      VersionedValue<T> result = mergeOtherItem(data1, v2);
+      if (result != null) {
+        merged.put(v2.value.getId(), result);
       }
     }
     for (VersionedValue<T> v1 : data1.values.values()) {
-      if (!data2.values.containsKey(v1.value.getId()) && !dominates(data2.version, v1.version)) {
-        merged.put(v1.value.getId(), new VersionedValue<>(v1.value, v1.version));
+      if (data2.values.containsKey(v1.value.getId())) {
+        continue;
+      }
+      if (keepsOwnItem(data2, v1)) {
+        merged.put(v1.value.getId(), v1);
+      } else {
+        removedIds.add(v1.value.getId());
       }
     }
     return merged;
   }
 
-  private VersionMap mergeVersions(VersionMap version1, VersionMap version2) {
-    VersionMap merged = VersionMap.of();
-    for (Map.Entry<String, Integer> entry : version1.entrySet()) {
-      merged.put(entry.getKey(), entry.getValue());
+  /**
+   * Returns what {@code data1} holds for an entry of the other model after merging, or null if
+   * {@code data1} has already removed it.
+   */
+  static <T extends Referenceable> VersionedValue<T> mergeOtherItem(
+      CollectionData<T> data1, VersionedValue<T> v2) {
+    VersionedValue<T> v1 = data1.values.get(v2.value.getId());
+    if (v1 != null) {
+      return new VersionedValue<>(v2.value, VersionMap.merge(v1.version, v2.version));
+    } else if (!data1.version.dominates(v2.version)) {
+      return v2;
     }
-    for (Map.Entry<String, Integer> entry : version2.entrySet()) {
-      Integer version1Value = version1.get(entry.getKey());
-      merged.put(
-          entry.getKey(), Math.max(entry.getValue(), version1Value == null ? 0 : version1Value));
-    }
-    return merged;
+    return null;
   }
 
-  private boolean dominates(VersionMap map1, VersionMap map2) {
-    for (Map.Entry<String, Integer> entry : map2.entrySet()) {
-      if (map1.getOrDefault(entry.getKey(), 0) < entry.getValue()) {
-        return false;
-      }
+  /**
+   * Whether an entry missing from {@code data2} survives the merge, i.e. {@code data2} has not
+   * seen (and therefore not removed) it.
+   */
+  static <T extends Referenceable> boolean keepsOwnItem(
+      CollectionData<T> data2, VersionedValue<T> v1) {
+    return !data2.version.dominates(v1.version);
+  }
+
+  private static class Removal {
+    final VersionMap clock;
+    final long sequence;
+
+    Removal(VersionMap clock, long sequence) {
+      this.clock = clock;
+      this.sequence = sequence;
     }
-    return true;
   }
 }
@@ -0,0 +1,286 @@
+package arcs.crdt;
+
+import arcs.crdt.CollectionDataTest.Data;
+import java.util.Collections;
+import java.util.List;
+
+// Tests for Java-only CRDTCollection features. Behaviour shared with crdt-collection.ts is
+// covered by CollectionDataTest.
+
+@SuppressWarnings("unchecked")
+public class CRDTCollectionTest {
+  public static void testMergeDeltaAppliesOnlyChanges() {
+    CRDTCollection<Data> source = new CRDTCollection<>();
+    source.setRemovalTracking(true);
+    add(source, "one", "me");
+    add(source, "two", "me");
+    add(source, "three", "you");
+    CRDTCollection<Data> replica = new CRDTCollection<>();
+    replica.merge(source.getData());
+    VersionMap synced = new VersionMap(replica.getData().version);
+
+    add(source, "four", "you");
+    remove(source, "two", "me");
+
+    CollectionDelta<Data> delta = source.getDelta(synced);
+    assert delta.values.size() == 1 && delta.values.containsKey("four")
+        : "delta should only carry the new entry, got " + delta.values.keySet();
+    assert delta.removed.containsKey("two");
+
+    MergeResult<?> result = replica.merge(delta);
+    CollectionChange<Data> change = (CollectionChange<Data>) result.modelChange;
+    assert change.changeType == ChangeType.OPERATIONS;
+    CRDTOperation[] ops = change.operations.get();
+    assert ops.length == 2 : "expected 2 effective ops, got " + ops.length;
+    assert ((CollectionOperation<Data>) ops[0]).type == CollectionOperation.Type.ADD;
+    assert ((CollectionOperation<Data>) ops[1]).type == CollectionOperation.Type.REMOVE;
+    assertSameModel(replica, source);
+
+    // Merging the same delta again has no effect.
+    result = replica.merge(delta);
+    assert ((CollectionChange<Data>) result.modelChange).operations.get().length == 0;
+    assertSameModel(replica, source);
+  }
+
+  public static void testMergeDeltaMatchesFullMerge() {
+    CRDTCollection<Data> local = new CRDTCollection<>();
+    add(local, "one", "me");
+    add(local, "two", "me");
+    CRDTCollection<Data> remote = new CRDTCollection<>();
+    remote.setRemovalTracking(true);
+    remote.merge(local.getData());
+    VersionMap since = new VersionMap(local.getData().version);
+    add(remote, "three", "you");
+    add(remote, "one", "you");
+    remove(remote, "two", "me");
+
+    CRDTCollection<Data> fullMerged = new CRDTCollection<>();
+    fullMerged.merge(local.getData());
+    fullMerged.merge(remote.getData());
+
+    local.merge(remote.getDelta(since));
+    assertSameModel(local, fullMerged);
+  }
+
+  public static void testMergeDeltaRejectsDeltaSinceUnseenVersion() {
+    CRDTCollection<Data> source = new CRDTCollection<>();
+    source.setRemovalTracking(true);
+    add(source, "one", "me");
+    CRDTCollection<Data> stale = new CRDTCollection<>();
+    stale.merge(source.getData());
+    add(source, "two", "me");
+    VersionMap since = new VersionMap(source.getData().version);
+    add(source, "three", "me");
+
+    CollectionDelta<Data> delta = source.getDelta(since);
+    VersionMap before = new VersionMap(stale.getData().version);
+    try {
+      stale.merge(delta);
+      assert false : "a delta since an unseen version must be rejected";
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    assert stale.getData().version.equals(before);
+    assert stale.getData().keys().size() == 1;
+
+    // Falling back to the full model recovers the skipped entry.
+    stale.merge(source.getData());
+    assertSameModel(stale, source);
+  }
+
+  public static void testAcknowledgedRemovalsAreNotShippedAgain() {
+    CRDTCollection<Data> source = new CRDTCollection<>();
+    add(source, "one", "me");
+    add(source, "two", "me");
+    add(source, "three", "me");
+    // Not tracked yet: nothing is recorded.
+    remove(source, "one", "me");
+    source.setRemovalTracking(true);
+    CRDTCollection<Data> replica = new CRDTCollection<>();
+    replica.merge(source.getData());
+    VersionMap since = new VersionMap(replica.getData().version);
+
+    remove(source, "two", "me");
+    CollectionDelta<Data> first = source.getDelta(since);
+    assert first.removed.keySet().equals(Collections.singleton("two"))
+        : first.removed.keySet();
+    replica.merge(first);
+
+    remove(source, "three", "me");
+    CollectionDelta<Data> second = source.getDelta(since);
+    assert second.removed.size() == 2;
+    // Once the replica has merged the first delta, its removals are dropped.
+    assert source.acknowledgeRemovals(first.getRemovalSequence()) == 1;
+    CollectionDelta<Data> third = source.getDelta(since);
+    assert third.removed.keySet().equals(Collections.singleton("three"))
+        : third.removed.keySet();
+    replica.merge(third);
+    assertSameModel(replica, source);
+
+    assert source.acknowledgeRemovals(third.getRemovalSequence()) == 1;
+    assert source.getDelta(since).removed.isEmpty();
+  }
+
+  public static void testApplyBatchMatchesSequentialOperations() {
+    CRDTCollection<Data> batched = new CRDTCollection<>();
+    CollectionBatch<Data> batch = new CollectionBatch<>(2);
+    batch
+        .add(new Data("one"), "me", 1)
+        .add(new Data("two"), "me", 2)
+        // Out of sequence for "me": rejected.
+        .add(new Data("three"), "me", 4)
+        .addNext(new Data("three"), "you")
+        .addNext(new Data("one"), "you");
+    assert batched.applyBatch(batch) == 4;
+    assert batch.size() == 5;
+    assert batch.isAccepted(0) && batch.isAccepted(1) && !batch.isAccepted(2);
+    assert batch.isAccepted(3) && batch.isAccepted(4);
+
+    CRDTCollection<Data> sequential = new CRDTCollection<>();
+    add(sequential, "one", "me");
+    add(sequential, "two", "me");
+    add(sequential, "three", "you");
+    add(sequential, "one", "you");
+    assertSameModel(batched, sequential);
+
+    batch.clear();
+    VersionMap stale = VersionMap.of("me", 1);
+    VersionMap current = new VersionMap(batched.getData().version);
+    batch
+        .remove(new Data("two"), "me", stale)
+        .remove(new Data("two"), "me", current)
+        .remove(new Data("missing"), "me", current)
+        .remove(new Data("one"), "me", current);
+    assert batched.applyBatch(batch) == 2;
+    assert !batch.isAccepted(0) && batch.isAccepted(1) && !batch.isAccepted(2);
+    assert batch.isAccepted(3) && batch.isRemove(3);
+
+    remove(sequential, "two", "me");
+    remove(sequential, "one", "me");
+    assertSameModel(batched, sequential);
+  }
+
+  public static void testCompactDoesNotChangeMergeResults() {
+    CRDTCollection<Data> compacted = newShortLivedWriters();
+    CRDTCollection<Data> original = newShortLivedWriters();
+    assert original.clockWidthMetrics(4).maxWidth == 8;
+
+    // A peer that has seen everything so far, and then makes its own changes.
+    CRDTCollection<Data> peer = new CRDTCollection<>();
+    peer.merge(original.getData());
+    VersionMap stable = new VersionMap(peer.getData().version);
+    add(peer, "new", "peer");
+    add(peer, "shared", "peer");
+    remove(peer, "item3", "peer");
+
+    int dropped = compacted.compact(stable);
+    ClockWidthMetrics metrics = compacted.clockWidthMetrics(4);
+    assert dropped == 16 : "expected 16 dropped counters, got " + dropped;
+    assert metrics.maxWidth == 0 && metrics.totalWidth == 0 && metrics.histogram[0] == 9;
+    assert compacted.getData().version.equals(original.getData().version);
+
+    compacted.merge(peer.getData());
+    original.merge(peer.getData());
+    CollectionData<Data> data1 = compacted.getData();
+    CollectionData<Data> data2 = original.getData();
+    assert data1.keys().equals(data2.keys()) : data1.keys() + " != " + data2.keys();
+    assert !data1.keys().contains("item3") && data1.keys().contains("new");
+    for (String id : data1.keys()) {
+      assert data1.get(id).version.withoutDominated(stable)
+          .equals(data2.get(id).version.withoutDominated(stable));
+    }
+  }
+
+  public static void testOperationLogRebuildsAndCatchesUp() {
+    CRDTCollection<Data> collection = new CRDTCollection<>();
+    add(collection, "zero", "me");
+    CollectionOperationLog<Data> log = new CollectionOperationLog<>(3, 2);
+    collection.setOperationLog(log);
+
+    add(collection, "one", "me");
+    add(collection, "two", "you");
+    add(collection, "three", "me");
+    // A replica that has applied everything up to sequence 3.
+    CRDTCollection<Data> replica = log.rebuild();
+    long replicaSequence = log.lastSequence();
+    assertSameModel(replica, collection);
+
+    remove(collection, "one", "me");
+    collection.applyBatch(
+        new CollectionBatch<Data>().addNext(new Data("four"), "you").addNext(new Data("five"), "me"));
+    add(collection, "six", "them");
+    remove(collection, "two", "you");
+    assert log.lastSequence() == 8;
+
+    assertSameModel(log.rebuild(), collection);
+    // Snapshots at 0, 3 and 6 were taken; only the last two are retained.
+    assert log.since(0) == null;
+    List<CollectionOperation<Data>> missing = log.since(replicaSequence);
+    assert missing.size() == 5 : "expected 5 missing ops, got " + missing.size();
+    for (CollectionOperation<Data> op : missing) {
+      assert replica.applyOperation(op);
+    }
+    assertSameModel(replica, collection);
+
+    // A full merge cannot be expressed as operations, so it restarts the log.
+    collection.merge(new CRDTCollection<Data>().getData());
+    assert log.since(log.lastSequence() - 1) == null;
+    assert log.since(log.lastSequence()).isEmpty();
+    assertSameModel(log.rebuild(), collection);
+  }
+
+  public static void testOperationLogReplaysAcrossCompaction() {
+    CRDTCollection<Data> collection = newShortLivedWriters();
+    CollectionOperationLog<Data> log = new CollectionOperationLog<>(100, 2);
+    collection.setOperationLog(log);
+    add(collection, "extra", "writer0");
+
+    VersionMap stable = new VersionMap(collection.getData().version);
+    assert collection.compact(stable) > 0;
+    remove(collection, "item3", "writer3");
+    add(collection, "late", "writer1");
+
+    assertSameModel(log.rebuild(), collection);
+  }
+
+  /** Eight writers each add one item and touch a shared one. */
+  private static CRDTCollection<Data> newShortLivedWriters() {
+    CRDTCollection<Data> collection = new CRDTCollection<>();
+    for (int i = 0; i < 8; i++) {
+      add(collection, "item" + i, "writer" + i);
+      add(collection, "shared", "writer" + i);
+    }
+    return collection;
+  }
+
+  static void add(CRDTCollection<Data> collection, String id, String actor) {
+    assert collection.applyOperation(
+        new CollectionOperation<>(
+            CollectionOperation.Type.ADD,
+            new Data(id),
+            VersionMap.of(actor, collection.nextVersion(actor)),
+            actor));
+  }
+
+  static void remove(CRDTCollection<Data> collection, String id, String actor) {
+    VersionMap clock = new VersionMap(collection.getData().get(id).version);
+    clock.mergeWith(collection.getData().version);
+    assert collection.applyOperation(
+        new CollectionOperation<>(CollectionOperation.Type.REMOVE, new Data(id), clock, actor));
+  }
+
+  static void assertSameModel(CRDTCollection<Data> actual, CRDTCollection<Data> expected) {
+    CollectionData<Data> data1 = actual.getData();
+    CollectionData<Data> data2 = expected.getData();
+    assert data1.version.equals(data2.version)
+        : "version " + data1.version + " != " + data2.version;
+    assert data1.values.keySet().equals(data2.values.keySet())
+        : "ids " + data1.values.keySet() + " != " + data2.values.keySet();
+    for (String id : data1.keys()) {
+      assert data1.get(id).version.equals(data2.get(id).version)
+          : "version of " + id + ": " + data1.get(id).version + " != " + data2.get(id).version;
+    }
+  }
+
+  private CRDTCollectionTest() {}
+}
@@ -0,0 +1,145 @@
+package arcs.crdt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A PN-counter: every actor owns a slot holding the total it has added and the total it has
+ * subtracted, and the value is the sum over all slots. An actor's slot only grows, and each
+ * operation moves the actor's version forward, so merging takes the slot with the higher version.
+ *
+ * <p>Slots are primitive arrays in {@link CountData}, and the running total is maintained on every
+ * change, so applying an operation is a binary search and reading the value is constant time.
+ */
+// Extends crdt-count.ts with decrements.
+public class CRDTCount implements CountModel {
+  private final CountData model;
+
+  public CRDTCount() {
+    model = new CountData();
+  }
+
+  public CRDTCount(CountData data) {
+    model = data;
+  }
+
+  @Override
+  public MergeResult<?> merge(CRDTData other) {
+    if (!(other instanceof CountData)) {
+      throw new AssertionError("Cannot merge `other`");
+    }
+    CountData otherModel = (CountData) other;
+    List<CRDTOperation> thisChanges = new ArrayList<>();
+    List<CRDTOperation> otherChanges = new ArrayList<>();
+
+    for (int j = 0; j < otherModel.size(); j++) {
+      int actor = otherModel.actorIndexAt(j);
+      int otherVersion = otherModel.version.getActor(actor);
+      long otherIncrements = otherModel.incrementsAt(j);
+      long otherDecrements = otherModel.decrementsAt(j);
+      int thisVersion = model.version.getActor(actor);
+      int pos = model.find(actor);
+      long thisIncrements = pos < 0 ? 0 : model.incrementsAt(pos);
+      long thisDecrements = pos < 0 ? 0 : model.decrementsAt(pos);
+      if (otherVersion > thisVersion) {
+        if (otherIncrements < thisIncrements || otherDecrements < thisDecrements) {
+          throw divergent(actor);
+        }
+        thisChanges.add(
+            new CountOperation(
+                ActorTable.nameOf(actor),
+                otherIncrements - thisIncrements,
+                otherDecrements - thisDecrements,
+                thisVersion,
+                otherVersion));
+        model.set(pos < 0 ? model.slot(actor) : pos, otherIncrements, otherDecrements);
+        model.version.putActor(actor, otherVersion);
+      } else if (thisVersion > otherVersion) {
+        if (thisIncrements < otherIncrements || thisDecrements < otherDecrements) {
+          throw divergent(actor);
+        }
+        otherChanges.add(
+            new CountOperation(
+                ActorTable.nameOf(actor),
+                thisIncrements - otherIncrements,
+                thisDecrements - otherDecrements,
+                otherVersion,
+                thisVersion));
+      } else if (thisIncrements != otherIncrements || thisDecrements != otherDecrements) {
+        throw divergent(actor);
+      }
+    }
+
+    for (int i = 0; i < model.size(); i++) {
+      int actor = model.actorIndexAt(i);
+      if (otherModel.find(actor) >= 0) {
+        continue;
+      }
+      if (otherModel.version.getActor(actor) > 0) {
+        throw new AssertionError(
+            "CRDTCount model has version but no value for key " + ActorTable.nameOf(actor));
+      }
+      otherChanges.add(
+          new CountOperation(
+              ActorTable.nameOf(actor),
+              model.incrementsAt(i),
+              model.decrementsAt(i),
+              0,
+              model.version.getActor(actor)));
+    }
+
+    return new MergeResult<>(operations(thisChanges), operations(otherChanges));
+  }
+
+  @Override
+  public boolean applyOperation(CRDTOperation op) {
+    if (!(op instanceof CountOperation)) {
+      throw new AssertionError("Incompatible operation " + op);
+    }
+    CountOperation operation = (CountOperation) op;
+    int actor = ActorTable.intern(operation.actor);
+    if (operation.from != model.version.getActor(actor) || operation.to <= operation.from) {
+      return false;
+    }
+    if (operation.increment < 0 || operation.decrement < 0) {
+      return false;
+    }
+    int pos = model.slot(actor);
+    model.set(
+        pos,
+        model.incrementsAt(pos) + operation.increment,
+        model.decrementsAt(pos) + operation.decrement);
+    model.version.putActor(actor, operation.to);
+    return true;
+  }
+
+  /** Returns the live model; callers must not modify it. */
+  @Override
+  public CountData getData() {
+    return model;
+  }
+
+  @Override
+  public RawCount getParticleView() {
+    return new RawCount(model.total());
+  }
+
+  /** The version the next operation from {@code actor} must start at. */
+  public int currentVersion(String actor) {
+    return model.version.getOrDefault(actor, 0);
+  }
+
+  private static CountChange operations(List<CRDTOperation> operations) {
+    CountChange change = new CountChange();
+    change.changeType = ChangeType.OPERATIONS;
+    change.operations = Optional.of(operations.toArray(new CRDTOperation[0]));
+    return change;
+  }
+
+  private static AssertionError divergent(int actor) {
+    return new AssertionError(
+        "Divergent versions encountered when merging CRDTCount models for key "
+            + ActorTable.nameOf(actor));
+  }
+}
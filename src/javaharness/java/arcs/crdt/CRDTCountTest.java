@@ -0,0 +1,123 @@
+package arcs.crdt;
+
+// The set of tests copied from src/runtime/crdt/tests/crdt-count-test.ts, plus decrements.
+// Please, keep in sync.
+
+public class CRDTCountTest {
+  public static void testInitiallyZero() {
+    // initially has value 0
+    CRDTCount count = new CRDTCount();
+    assert count.getParticleView().get() == 0;
+  }
+
+  public static void testIncrementsFromActors() {
+    // can apply two increment ops from different actors, and resolves ops from the same actor
+    CRDTCount count = new CRDTCount();
+    assert count.applyOperation(CountOperation.increment("me", 0));
+    assert count.applyOperation(CountOperation.increment("them", 0));
+    assert count.applyOperation(CountOperation.increment("me", 1));
+    assert count.getParticleView().get() == 3;
+  }
+
+  public static void testRejectsDuplicatedOps() {
+    // does not resolve duplicated ops from the same actor
+    CRDTCount count = new CRDTCount();
+    assert count.applyOperation(CountOperation.increment("me", 0));
+    assert !count.applyOperation(CountOperation.increment("me", 0));
+    assert count.getParticleView().get() == 1;
+  }
+
+  public static void testMultiIncrementAndDecrement() {
+    CRDTCount count = new CRDTCount();
+    assert count.applyOperation(new CountOperation("me", 7, 0, 0, 1));
+    assert count.applyOperation(CountOperation.decrement("me", 1));
+    assert count.applyOperation(new CountOperation("them", 0, 10, 0, 1));
+    assert count.getParticleView().get() == -4;
+    assert !count.applyOperation(new CountOperation("me", -1, 0, 2, 3));
+    assert count.getData().size() == 2;
+  }
+
+  public static void testMergeDifferentActors() {
+    // merges two models with counts from different actors
+    CRDTCount count1 = new CRDTCount();
+    CRDTCount count2 = new CRDTCount();
+    count1.applyOperation(new CountOperation("me", 7, 0, 0, 1));
+    count2.applyOperation(new CountOperation("them", 4, 1, 0, 1));
+    MergeResult<?> result = count1.merge(count2.getData());
+    assert count1.getParticleView().get() == 10;
+
+    CRDTOperation[] modelOps = result.modelChange.operations.get();
+    assert modelOps.length == 1;
+    verifyOperation(modelOps[0], "them", 4, 1, 0, 1);
+    CRDTOperation[] otherOps = result.otherChange.operations.get();
+    assert otherOps.length == 1;
+    verifyOperation(otherOps[0], "me", 7, 0, 0, 1);
+
+    assert count2.applyOperation(otherOps[0]);
+    assertSameCount(count1, count2);
+  }
+
+  public static void testMergeSameActor() {
+    // merges two models with counts from the same actor
+    CRDTCount count1 = new CRDTCount();
+    CRDTCount count2 = new CRDTCount();
+    count1.applyOperation(new CountOperation("me", 7, 2, 0, 2));
+    count2.applyOperation(new CountOperation("me", 4, 0, 0, 1));
+    MergeResult<?> result = count1.merge(count2.getData());
+    assert count1.getParticleView().get() == 5;
+
+    assert result.modelChange.operations.get().length == 0;
+    CRDTOperation[] otherOps = result.otherChange.operations.get();
+    assert otherOps.length == 1;
+    verifyOperation(otherOps[0], "me", 3, 2, 1, 2);
+
+    assert count2.applyOperation(otherOps[0]);
+    assertSameCount(count1, count2);
+  }
+
+  public static void testMergeDivergentModelsThrows() {
+    // throws when attempting to merge divergent models
+    CRDTCount count1 = new CRDTCount();
+    CRDTCount count2 = new CRDTCount();
+    count1.applyOperation(new CountOperation("me", 7, 0, 0, 1));
+    count2.applyOperation(new CountOperation("me", 4, 0, 0, 1));
+    assertMergeThrows(count1, count2);
+
+    // throws when values appear to have gone backwards
+    count2 = new CRDTCount();
+    count2.applyOperation(new CountOperation("me", 4, 0, 0, 2));
+    assertMergeThrows(count1, count2);
+  }
+
+  private static void assertMergeThrows(CRDTCount count1, CRDTCount count2) {
+    try {
+      count1.merge(count2.getData());
+    } catch (AssertionError expected) {
+      return;
+    }
+    throw new AssertionError("merge should have failed");
+  }
+
+  private static void verifyOperation(
+      CRDTOperation op, String actor, long increment, long decrement, int from, int to) {
+    CountOperation operation = (CountOperation) op;
+    assert operation.actor.equals(actor);
+    assert operation.increment == increment;
+    assert operation.decrement == decrement;
+    assert operation.from == from;
+    assert operation.to == to;
+  }
+
+  private static void assertSameCount(CRDTCount count1, CRDTCount count2) {
+    CountData data1 = count1.getData();
+    CountData data2 = count2.getData();
+    assert data1.version.equals(data2.version);
+    assert data1.size() == data2.size();
+    for (int i = 0; i < data1.size(); i++) {
+      assert data1.actorAt(i).equals(data2.actorAt(i));
+      assert data1.incrementsAt(i) == data2.incrementsAt(i);
+      assert data1.decrementsAt(i) == data2.decrementsAt(i);
+    }
+    assert data1.total() == data2.total();
+  }
+}
@@ -0,0 +1,3 @@
+package arcs.crdt;
+
+class CRDTCountTypeRecord extends CRDTTypeRecord {}
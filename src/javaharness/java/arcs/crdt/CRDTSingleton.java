@@ -0,0 +1,102 @@
+package arcs.crdt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A multi-value register: a set holds one value, but concurrent sets from different actors are
+ * all kept until a later set or clear observes them.
+ *
+ * <p>Backed by a {@link CRDTCollection}, so it shares its data format and merge rules. A set or a
+ * clear only touches the values currently held, which is one unless there were concurrent writes,
+ * so none of the operations depend on the number of past writes.
+ */
+// copied from crdt-singleton.ts
+public class CRDTSingleton<T extends Referenceable> implements SingletonModel<T> {
+  private final CRDTCollection<T> collection;
+
+  public CRDTSingleton() {
+    collection = new CRDTCollection<>();
+  }
+
+  /** Creates a singleton holding {@code value} (if not null) at {@code version}. */
+  public CRDTSingleton(T value, VersionMap valueVersion, VersionMap version) {
+    List<VersionedValue<T>> values = new ArrayList<>();
+    if (value != null) {
+      values.add(new VersionedValue<>(value, valueVersion));
+    }
+    collection = new CRDTCollection<>(values, version);
+  }
+
+  @Override
+  public MergeResult<?> merge(CRDTData other) {
+    collection.merge(other);
+    // We cannot pass through the collection ops, so always return the updated model.
+    SingletonChange<T> change = new SingletonChange<>();
+    change.changeType = ChangeType.MODEL;
+    change.modelPostChange = Optional.of(collection.getData());
+    return new MergeResult<>(change, change);
+  }
+
+  @Override
+  public boolean applyOperation(CRDTOperation op) {
+    if (!(op instanceof SingletonOperation)) {
+      throw new AssertionError("Incompatible operation " + op);
+    }
+    @SuppressWarnings("unchecked")
+    SingletonOperation<T> operation = (SingletonOperation<T>) op;
+    switch (operation.type) {
+      case CLEAR:
+        return clear(operation.actor, operation.clock);
+      case SET:
+        // Remove does not require an increment, but the caller of this method will have
+        // incremented its version, so we hack a version with t-1 for this actor.
+        VersionMap removeClock = new VersionMap(operation.clock);
+        removeClock.put(operation.actor, operation.clock.getOrDefault(operation.actor, 0) - 1);
+        if (!clear(operation.actor, removeClock)) {
+          return false;
+        }
+        return collection.applyOperation(
+            new CollectionOperation<>(
+                CollectionOperation.Type.ADD, operation.value, operation.clock, operation.actor));
+      default:
+        throw new AssertionError("Op " + operation.type + " not supported");
+    }
+  }
+
+  @Override
+  public CollectionData<T> getData() {
+    return collection.getData();
+  }
+
+  /** Returns one of the held values (the one with the smallest id), or a null view if empty. */
+  @Override
+  public RawSingleton<T> getParticleView() {
+    T result = null;
+    for (VersionedValue<T> value : collection.getData().values.values()) {
+      if (result == null || value.value.getId().compareTo(result.getId()) < 0) {
+        result = value.value;
+      }
+    }
+    return new RawSingleton<>(result);
+  }
+
+  public int nextVersion(String actor) {
+    return collection.nextVersion(actor);
+  }
+
+  private boolean clear(String actor, VersionMap clock) {
+    // Clear all existing values if our clock allows it. Values whose clock is not dominated were
+    // written concurrently and are kept; this does not fail the clear.
+    CollectionData<T> data = collection.getData();
+    if (data.values.isEmpty()) {
+      return true;
+    }
+    for (VersionedValue<T> value : new ArrayList<>(data.values.values())) {
+      collection.applyOperation(
+          new CollectionOperation<>(CollectionOperation.Type.REMOVE, value.value, clock, actor));
+    }
+    return true;
+  }
+}
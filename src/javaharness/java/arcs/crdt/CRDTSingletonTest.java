@@ -0,0 +1,89 @@
+package arcs.crdt;
+
+import arcs.crdt.CollectionDataTest.Data;
+
+// The set of tests copied from src/runtime/crdt/tests/crdt-singleton-test.ts
+// Please, keep in sync.
+
+public class CRDTSingletonTest {
+  public static void testSetValuesSingleActor() {
+    // can set values from a single actor
+    CRDTSingleton<Data> singleton = new CRDTSingleton<>();
+    assert singleton.getParticleView().get() == null;
+
+    assert singleton.applyOperation(
+        SingletonOperation.set(new Data("1"), VersionMap.of("A", 1), "A"));
+    verifyView(singleton, "1");
+
+    assert singleton.applyOperation(
+        SingletonOperation.set(new Data("2"), VersionMap.of("A", 2), "A"));
+    verifyView(singleton, "2");
+
+    // Set requires version increment, so this fails.
+    assert !singleton.applyOperation(
+        SingletonOperation.set(new Data("3"), VersionMap.of("A", 2), "A"));
+    verifyView(singleton, "2");
+  }
+
+  public static void testClearValues() {
+    // can clear values
+    CRDTSingleton<Data> singleton = new CRDTSingleton<>();
+    singleton.applyOperation(SingletonOperation.set(new Data("1"), VersionMap.of("A", 1), "A"));
+    verifyView(singleton, "1");
+
+    // Clear requires the same version number, so this does not really clear it.
+    singleton.applyOperation(SingletonOperation.clear(VersionMap.of("A", 0), "A"));
+    verifyView(singleton, "1");
+    singleton.applyOperation(SingletonOperation.clear(VersionMap.of("A", 2), "A"));
+    verifyView(singleton, "1");
+
+    // Up-to-date version number, does clear it.
+    singleton.applyOperation(SingletonOperation.clear(VersionMap.of("A", 1), "A"));
+    assert singleton.getParticleView().get() == null;
+  }
+
+  public static void testAddAndClearMultipleActors() {
+    // can add and clear from multiple actors
+    CRDTSingleton<Data> singleton = new CRDTSingleton<>();
+    singleton.applyOperation(SingletonOperation.set(new Data("1"), VersionMap.of("A", 1), "A"));
+    assert singleton.getData().get("1").version.equals(VersionMap.of("A", 1));
+
+    // Another actor concurrently setting a value, both values will be kept.
+    singleton.applyOperation(SingletonOperation.set(new Data("2"), VersionMap.of("B", 1), "B"));
+    assert singleton.getData().size() == 2;
+    assert singleton.getData().get("2").version.equals(VersionMap.of("B", 1));
+    verifyView(singleton, "1");
+
+    // Actor B setting a new value after also seeing A's value, old value is removed.
+    singleton.applyOperation(
+        SingletonOperation.set(new Data("2"), VersionMap.of("A", 1, "B", 2), "B"));
+    assert singleton.getData().size() == 1;
+    assert singleton.getData().get("2").version.equals(VersionMap.of("A", 1, "B", 2));
+    verifyView(singleton, "2");
+
+    singleton.applyOperation(SingletonOperation.clear(VersionMap.of("A", 1, "B", 2), "A"));
+    assert singleton.getData().size() == 0;
+    assert singleton.getParticleView().get() == null;
+  }
+
+  public static void testMergeTwoSingletons() {
+    // can merge two singletons
+    CRDTSingleton<Data> singletonA = new CRDTSingleton<>();
+    singletonA.applyOperation(SingletonOperation.set(new Data("1"), VersionMap.of("A", 1), "A"));
+    CRDTSingleton<Data> singletonB = new CRDTSingleton<>();
+    singletonB.applyOperation(SingletonOperation.set(new Data("2"), VersionMap.of("B", 1), "B"));
+
+    MergeResult<?> result = singletonA.merge(singletonB.getData());
+    assert result.modelChange.changeType == ChangeType.MODEL;
+    CollectionData<?> merged = (CollectionData<?>) result.modelChange.modelPostChange.get();
+    assert merged.size() == 2;
+    assert merged.get("1").version.equals(VersionMap.of("A", 1));
+    assert merged.get("2").version.equals(VersionMap.of("B", 1));
+    assert merged.version.equals(VersionMap.of("A", 1, "B", 1));
+    verifyView(singletonA, "1");
+  }
+
+  private static void verifyView(CRDTSingleton<Data> singleton, String id) {
+    assert singleton.getParticleView().get().getId().equals(id);
+  }
+}
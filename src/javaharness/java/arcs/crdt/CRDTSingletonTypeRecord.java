@@ -0,0 +1,3 @@
+package arcs.crdt;
+
+class CRDTSingletonTypeRecord<T extends Referenceable> extends CRDTTypeRecord {}
@@ -0,0 +1,33 @@
+package arcs.crdt;
+
+/** Snapshot of how many actors the per-entry clocks of a collection carry. */
+public class ClockWidthMetrics {
+  public final int entries;
+  public final long totalWidth;
+  public final int maxWidth;
+  // histogram[w] is the number of entries whose clock has w actors; the last bucket also counts
+  // every wider clock.
+  public final int[] histogram;
+
+  ClockWidthMetrics(int entries, long totalWidth, int maxWidth, int[] histogram) {
+    this.entries = entries;
+    this.totalWidth = totalWidth;
+    this.maxWidth = maxWidth;
+    this.histogram = histogram;
+  }
+
+  public double averageWidth() {
+    return entries == 0 ? 0 : (double) totalWidth / entries;
+  }
+
+  @Override
+  public String toString() {
+    return "ClockWidthMetrics{entries="
+        + entries
+        + ", average="
+        + averageWidth()
+        + ", max="
+        + maxWidth
+        + "}";
+  }
+}
@@ -0,0 +1,98 @@
+package arcs.crdt;
+
+import java.util.Arrays;
+
+/**
+ * A reusable batch of add/remove operations for {@link CRDTCollection#applyBatch}. Operations are
+ * stored column-wise in primitive and reference arrays, so queueing one does not allocate an
+ * operation object or a clock. After the batch is applied, {@link #isAccepted} reports the outcome
+ * of every operation.
+ */
+public class CollectionBatch<T extends Referenceable> {
+  // Counter value meaning "the next clock value for the actor when the batch is applied".
+  static final int NEXT = -1;
+
+  Object[] values;
+  String[] actors;
+  // Counter of the actor for adds (or NEXT); unused for removes.
+  int[] counters;
+  // Full operation clock for removes; null for adds.
+  VersionMap[] clocks;
+  boolean[] accepted;
+  int size;
+
+  public CollectionBatch() {
+    this(16);
+  }
+
+  public CollectionBatch(int expectedSize) {
+    int capacity = Math.max(1, expectedSize);
+    values = new Object[capacity];
+    actors = new String[capacity];
+    counters = new int[capacity];
+    clocks = new VersionMap[capacity];
+    accepted = new boolean[capacity];
+  }
+
+  /** Queues an add of {@code value} by {@code actor} at the given counter value. */
+  public CollectionBatch<T> add(T value, String actor, int clock) {
+    append(value, actor, clock, null);
+    return this;
+  }
+
+  /** Queues an add of {@code value} at whatever the next counter of {@code actor} will be. */
+  public CollectionBatch<T> addNext(T value, String actor) {
+    append(value, actor, NEXT, null);
+    return this;
+  }
+
+  /** Queues a remove of {@code value} by {@code actor}. {@code clock} is not copied. */
+  public CollectionBatch<T> remove(T value, String actor, VersionMap clock) {
+    append(value, actor, 0, clock);
+    return this;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    return (T) values[index];
+  }
+
+  public boolean isRemove(int index) {
+    return clocks[index] != null;
+  }
+
+  /** Whether the operation at {@code index} took effect when the batch was last applied. */
+  public boolean isAccepted(int index) {
+    return accepted[index];
+  }
+
+  /** Empties the batch while keeping its capacity. */
+  public void clear() {
+    Arrays.fill(values, 0, size, null);
+    Arrays.fill(actors, 0, size, null);
+    Arrays.fill(clocks, 0, size, null);
+    Arrays.fill(accepted, 0, size, false);
+    size = 0;
+  }
+
+  private void append(T value, String actor, int counter, VersionMap clock) {
+    if (size == values.length) {
+      int capacity = size * 2;
+      values = Arrays.copyOf(values, capacity);
+      actors = Arrays.copyOf(actors, capacity);
+      counters = Arrays.copyOf(counters, capacity);
+      clocks = Arrays.copyOf(clocks, capacity);
+      accepted = Arrays.copyOf(accepted, capacity);
+    }
+    values[size] = value;
+    actors[size] = actor;
+    counters[size] = counter;
+    clocks[size] = clock;
+    accepted[size] = false;
+    size++;
+  }
+}
@@ -0,0 +1,319 @@
+package arcs.crdt;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of {@link VersionMap}, {@link CollectionOperation} and {@link
+ * CollectionData}, written to and read from a {@link ByteBuffer}.
+ *
+ * <p>Every encoded message starts with its own actor table (the UTF-8 names of the actors it
+ * mentions); clocks then refer to actors by their position in that table. All integers are
+ * unsigned LEB128 varints and entity payloads are length-prefixed, using {@link ValueCodec} for
+ * the payload bytes. Not available on J2CL, which has no java.nio.
+ *
+ * <p>Decoding checks every length against the bytes left and throws {@link
+ * IllegalArgumentException} for malformed input. Only the actors a decoded clock or operation
+ * refers to are interned in {@link ActorTable}, which never shrinks.
+ */
+public class CollectionCodec<T extends Referenceable> {
+  private static final byte ADD = 0;
+  private static final byte REMOVE = 1;
+
+  /** Encodes the entities stored in the collection. */
+  public interface ValueCodec<T> {
+    /** Number of bytes {@link #write} will produce for {@code value}. */
+    int size(T value);
+
+    void write(T value, ByteBuffer out);
+
+    /** Reads a value from the next {@code length} bytes of {@code in}. */
+    T read(ByteBuffer in, int length);
+  }
+
+  private final ValueCodec<T> valueCodec;
+
+  public CollectionCodec(ValueCodec<T> valueCodec) {
+    this.valueCodec = valueCodec;
+  }
+
+  public int encodedSize(VersionMap version) {
+    ActorTableWriter actors = new ActorTableWriter();
+    actors.addAll(version);
+    return actors.size() + clockSize(version, actors);
+  }
+
+  public void encode(VersionMap version, ByteBuffer out) {
+    ActorTableWriter actors = new ActorTableWriter();
+    actors.addAll(version);
+    actors.write(out);
+    writeClock(version, actors, out);
+  }
+
+  public VersionMap decodeVersionMap(ByteBuffer in) {
+    return readClock(new ActorTableReader(in), in);
+  }
+
+  public int encodedSize(CollectionOperation<T> operation) {
+    ActorTableWriter actors = new ActorTableWriter();
+    actors.add(ActorTable.intern(operation.actor));
+    actors.addAll(operation.clock);
+    return actors.size()
+        + 1
+        + varintSize(actors.localIndex(operation.actor))
+        + clockSize(operation.clock, actors)
+        + payloadSize(valueOf(operation));
+  }
+
+  public void encode(CollectionOperation<T> operation, ByteBuffer out) {
+    ActorTableWriter actors = new ActorTableWriter();
+    actors.add(ActorTable.intern(operation.actor));
+    actors.addAll(operation.clock);
+    actors.write(out);
+    out.put(operation.type == CollectionOperation.Type.ADD ? ADD : REMOVE);
+    writeVarint(actors.localIndex(operation.actor), out);
+    writeClock(operation.clock, actors, out);
+    writePayload(valueOf(operation), out);
+  }
+
+  public CollectionOperation<T> decodeOperation(ByteBuffer in) {
+    ActorTableReader actors = new ActorTableReader(in);
+    byte type = in.get();
+    String actor = actors.nameAt(readVarint(in));
+    VersionMap clock = readClock(actors, in);
+    T value = readPayload(in);
+    switch (type) {
+      case ADD:
+        return new CollectionOperation<>(CollectionOperation.Type.ADD, value, clock, actor);
+      case REMOVE:
+        return new CollectionOperation<>(CollectionOperation.Type.REMOVE, value, clock, actor);
+      default:
+        throw new IllegalArgumentException("Unknown operation type " + type);
+    }
+  }
+
+  public int encodedSize(CollectionData<T> data) {
+    ActorTableWriter actors = collectActors(data);
+    int size = actors.size() + clockSize(data.version, actors) + varintSize(data.values.size());
+    for (VersionedValue<T> value : data.values.values()) {
+      size += clockSize(value.version, actors) + payloadSize(value.value);
+    }
+    return size;
+  }
+
+  public void encode(CollectionData<T> data, ByteBuffer out) {
+    ActorTableWriter actors = collectActors(data);
+    actors.write(out);
+    writeClock(data.version, actors, out);
+    writeVarint(data.values.size(), out);
+    for (VersionedValue<T> value : data.values.values()) {
+      writeClock(value.version, actors, out);
+      writePayload(value.value, out);
+    }
+  }
+
+  public CollectionData<T> decodeData(ByteBuffer in) {
+    ActorTableReader actors = new ActorTableReader(in);
+    CollectionData<T> data = new CollectionData<>();
+    data.version = readClock(actors, in);
+    // Each entry takes at least two bytes: its clock size and payload length.
+    int count = readLength(in, 2);
+    data.values = new HashMap<>(count * 4 / 3 + 1);
+    for (int i = 0; i < count; i++) {
+      VersionMap version = readClock(actors, in);
+      T value = readPayload(in);
+      data.values.put(value.getId(), new VersionedValue<>(value, version));
+    }
+    return data;
+  }
+
+  private T valueOf(CollectionOperation<T> operation) {
+    return operation.type == CollectionOperation.Type.ADD
+        ? operation.added.get()
+        : operation.removed.get();
+  }
+
+  private ActorTableWriter collectActors(CollectionData<T> data) {
+    ActorTableWriter actors = new ActorTableWriter();
+    actors.addAll(data.version);
+    for (VersionedValue<T> value : data.values.values()) {
+      actors.addAll(value.version);
+    }
+    return actors;
+  }
+
+  private int payloadSize(T value) {
+    int length = valueCodec.size(value);
+    return varintSize(length) + length;
+  }
+
+  private void writePayload(T value, ByteBuffer out) {
+    int length = valueCodec.size(value);
+    writeVarint(length, out);
+    int start = out.position();
+    valueCodec.write(value, out);
+    if (out.position() - start != length) {
+      throw new IllegalStateException(
+          "ValueCodec wrote " + (out.position() - start) + " bytes, expected " + length);
+    }
+  }
+
+  private T readPayload(ByteBuffer in) {
+    int length = readLength(in, 1);
+    int end = in.position() + length;
+    T value = valueCodec.read(in, length);
+    in.position(end);
+    return value;
+  }
+
+  private static int clockSize(VersionMap version, ActorTableWriter actors) {
+    int size = varintSize(version.size());
+    for (int i = 0; i < version.size(); i++) {
+      size += varintSize(actors.localIndexOf(version.actorIndexAt(i)));
+      size += varintSize(version.clockAt(i));
+    }
+    return size;
+  }
+
+  private static void writeClock(VersionMap version, ActorTableWriter actors, ByteBuffer out) {
+    writeVarint(version.size(), out);
+    for (int i = 0; i < version.size(); i++) {
+      writeVarint(actors.localIndexOf(version.actorIndexAt(i)), out);
+      writeVarint(version.clockAt(i), out);
+    }
+  }
+
+  private static VersionMap readClock(ActorTableReader actors, ByteBuffer in) {
+    VersionMap version = new VersionMap();
+    // Each entry takes at least two bytes: its actor and its counter.
+    int size = readLength(in, 2);
+    for (int i = 0; i < size; i++) {
+      int actor = actors.actorAt(readVarint(in));
+      version.putActor(actor, readVarint(in));
+    }
+    return version;
+  }
+
+  /**
+   * Reads a length or count of items that take at least {@code minBytes} bytes each, and checks
+   * that they fit in the rest of {@code in}.
+   */
+  private static int readLength(ByteBuffer in, int minBytes) {
+    int length = readVarint(in);
+    if (length < 0 || (long) length * minBytes > in.remaining()) {
+      throw new IllegalArgumentException(
+          "Length " + length + " exceeds the " + in.remaining() + " bytes left");
+    }
+    return length;
+  }
+
+  static int varintSize(int value) {
+    int size = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      size++;
+    }
+    return size;
+  }
+
+  static void writeVarint(int value, ByteBuffer out) {
+    while ((value & ~0x7F) != 0) {
+      out.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  static int readVarint(ByteBuffer in) {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = in.get();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  /** The actor table of a message being decoded; names are interned when first referred to. */
+  private static class ActorTableReader {
+    private final String[] names;
+    // Interned index by local position, or -1 if not interned yet.
+    private final int[] actors;
+
+    ActorTableReader(ByteBuffer in) {
+      names = new String[readLength(in, 1)];
+      actors = new int[names.length];
+      for (int i = 0; i < names.length; i++) {
+        byte[] name = new byte[readLength(in, 1)];
+        in.get(name);
+        names[i] = new String(name, StandardCharsets.UTF_8);
+        actors[i] = -1;
+      }
+    }
+
+    String nameAt(int position) {
+      if (position < 0 || position >= names.length) {
+        throw new IllegalArgumentException("Unknown actor position " + position);
+      }
+      return names[position];
+    }
+
+    int actorAt(int position) {
+      String name = nameAt(position);
+      if (actors[position] < 0) {
+        actors[position] = ActorTable.intern(name);
+      }
+      return actors[position];
+    }
+  }
+
+  /** Assigns message-local positions to the actors of a message, in first-seen order. */
+  private static class ActorTableWriter {
+    private final Map<Integer, Integer> localIndices = new HashMap<>();
+    private final List<byte[]> names = new ArrayList<>();
+
+    void add(int actor) {
+      if (!localIndices.containsKey(actor)) {
+        localIndices.put(actor, names.size());
+        names.add(ActorTable.nameOf(actor).getBytes(StandardCharsets.UTF_8));
+      }
+    }
+
+    void addAll(VersionMap version) {
+      for (int i = 0; i < version.size(); i++) {
+        add(version.actorIndexAt(i));
+      }
+    }
+
+    int localIndexOf(int actor) {
+      return localIndices.get(actor);
+    }
+
+    int localIndex(String actor) {
+      return localIndexOf(ActorTable.intern(actor));
+    }
+
+    /** Encoded size of the table itself. */
+    int size() {
+      int size = varintSize(names.size());
+      for (byte[] name : names) {
+        size += varintSize(name.length) + name.length;
+      }
+      return size;
+    }
+
+    void write(ByteBuffer out) {
+      writeVarint(names.size(), out);
+      for (byte[] name : names) {
+        writeVarint(name.length, out);
+        out.put(name);
+      }
+    }
+  }
+}
@@ -11,6 +11,10 @@ public class CollectionData<T extends Referenceable> extends CRDTData {
     version = VersionMap.of();
   }
 
+  public VersionMap getVersion() {
+    return version;
+  }
+
   public VersionedValue<T> get(String id) {
     return values.get(id);
   }
@@ -0,0 +1,35 @@
+package arcs.crdt;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The part of a {@link CollectionData} that changed since a given version: the entries whose
+ * clocks are not dominated by {@code since}, and the removals recorded by the sender. {@code
+ * version} is the sender's full clock.
+ */
+public class CollectionDelta<T extends Referenceable> extends CRDTData {
+  final VersionMap since;
+  Map<String, VersionedValue<T>> values = new HashMap<>();
+  // Removed ids, with the clock of the operation that removed them.
+  Map<String, VersionMap> removed = new HashMap<>();
+  // The sender's removal count when the delta was taken; see CRDTCollection#acknowledgeRemovals.
+  long removalSequence;
+
+  public CollectionDelta(VersionMap since) {
+    this.since = since;
+    version = VersionMap.of();
+  }
+
+  public VersionMap getSince() {
+    return since;
+  }
+
+  public long getRemovalSequence() {
+    return removalSequence;
+  }
+
+  public int size() {
+    return values.size() + removed.size();
+  }
+}
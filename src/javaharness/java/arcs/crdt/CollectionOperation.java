@@ -27,4 +27,13 @@ public class CollectionOperation<T> implements CRDTOperation {
     this.clock = clock;
     this.actor = actor;
   }
+
+  public Type getType() {
+    return type;
+  }
+
+  /** The value being added or removed. */
+  public T getValue() {
+    return type == Type.ADD ? added.get() : removed.get();
+  }
 }
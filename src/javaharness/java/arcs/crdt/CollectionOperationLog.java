@@ -0,0 +1,130 @@
+package arcs.crdt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Append-only log of the operations accepted by a {@link CRDTCollection}, with a snapshot of the
+ * collection taken every {@code snapshotInterval} operations.
+ *
+ * <p>Every accepted operation gets the next sequence number. A model can be rebuilt from the latest
+ * snapshot plus the operations after it, and a replica that has applied everything up to sequence
+ * N can catch up with {@link #since}. Only the operations after the oldest retained snapshot are
+ * kept; older ones are dropped when that snapshot is evicted. There is always at least one
+ * snapshot, taken when the log is attached with {@link CRDTCollection#setOperationLog}.
+ */
+public class CollectionOperationLog<T extends Referenceable> {
+  private final int snapshotInterval;
+  private final int maxSnapshots;
+  private final Deque<Snapshot<T>> snapshots = new ArrayDeque<>();
+  private final List<CollectionOperation<T>> operations = new ArrayList<>();
+  // Sequence number of operations.get(0).
+  private long firstSequence = 1;
+  private long lastSequence = 0;
+
+  private static class Snapshot<T extends Referenceable> {
+    // The snapshot reflects every operation up to and including this sequence number.
+    final long sequence;
+    final CollectionData<T> data;
+
+    Snapshot(long sequence, CollectionData<T> data) {
+      this.sequence = sequence;
+      this.data = data;
+    }
+  }
+
+  public CollectionOperationLog(int snapshotInterval, int maxSnapshots) {
+    if (snapshotInterval <= 0 || maxSnapshots <= 0) {
+      throw new IllegalArgumentException("snapshotInterval and maxSnapshots must be positive");
+    }
+    this.snapshotInterval = snapshotInterval;
+    this.maxSnapshots = maxSnapshots;
+  }
+
+  /** Sequence number of the last recorded operation, or 0 if none was recorded. */
+  public long lastSequence() {
+    return lastSequence;
+  }
+
+  /** Number of operations currently retained. */
+  public int size() {
+    return operations.size();
+  }
+
+  /**
+   * Returns the operations recorded after {@code sequence}, or null if some of them were already
+   * dropped (or were replaced by a merge), in which case the caller needs a full model instead.
+   */
+  public List<CollectionOperation<T>> since(long sequence) {
+    if (sequence > lastSequence) {
+      throw new IllegalArgumentException(
+          "Sequence " + sequence + " is ahead of the log (" + lastSequence + ")");
+    }
+    if (sequence + 1 < firstSequence) {
+      return null;
+    }
+    return new ArrayList<>(operations.subList((int) (sequence + 1 - firstSequence), size()));
+  }
+
+  /** Rebuilds the collection from the latest snapshot and the operations recorded after it. */
+  public CRDTCollection<T> rebuild() {
+    Snapshot<T> latest = snapshots.peekLast();
+    CRDTCollection<T> collection =
+        new CRDTCollection<>(
+            new ArrayList<>(latest.data.values.values()), new VersionMap(latest.data.version));
+    long replayFrom = latest.sequence + 1;
+    for (long sequence = replayFrom; sequence <= lastSequence; sequence++) {
+      if (!collection.applyOperation(operations.get((int) (sequence - firstSequence)))) {
+        throw new AssertionError("Operation " + sequence + " was rejected on replay");
+      }
+    }
+    return collection;
+  }
+
+  void record(CollectionOperation<T> operation, CollectionData<T> current) {
+    operations.add(operation);
+    lastSequence++;
+    if (lastSequence % snapshotInterval == 0) {
+      takeSnapshot(current);
+    }
+  }
+
+  /**
+   * Records a change that is not expressible as operations (a full merge): the model is
+   * snapshotted and earlier operations can no longer be replayed on top of older states.
+   */
+  void recordModelChange(CollectionData<T> current) {
+    lastSequence++;
+    restart(current);
+  }
+
+  /** Drops all history and takes a base snapshot of {@code current}. */
+  void restart(CollectionData<T> current) {
+    snapshots.clear();
+    operations.clear();
+    firstSequence = lastSequence + 1;
+    takeSnapshot(current);
+  }
+
+  private void takeSnapshot(CollectionData<T> current) {
+    snapshots.addLast(new Snapshot<>(lastSequence, copy(current)));
+    if (snapshots.size() > maxSnapshots) {
+      snapshots.removeFirst();
+      // Keep the operations after the oldest remaining snapshot.
+      long keepFrom = snapshots.peekFirst().sequence + 1;
+      operations.subList(0, (int) (keepFrom - firstSequence)).clear();
+      firstSequence = keepFrom;
+    }
+  }
+
+  private static <T extends Referenceable> CollectionData<T> copy(CollectionData<T> data) {
+    // Entries are never mutated in place, so they can be shared with the snapshot.
+    CollectionData<T> copy = new CollectionData<>();
+    copy.values = new HashMap<>(data.values);
+    copy.version = new VersionMap(data.version);
+    return copy;
+  }
+}
@@ -0,0 +1,3 @@
+package arcs.crdt;
+
+class CountChange extends CRDTChange<CRDTCountTypeRecord> {}
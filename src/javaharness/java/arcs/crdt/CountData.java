@@ -0,0 +1,105 @@
+package arcs.crdt;
+
+import java.util.Arrays;
+
+/**
+ * The state of a {@link CRDTCount}: for every actor, the total it has added and the total it has
+ * subtracted, kept in primitive arrays sorted by interned actor index. {@link #version} holds the
+ * number of operations applied from each actor.
+ */
+public class CountData extends CRDTData {
+  private static final int[] NO_ACTORS = new int[0];
+  private static final long[] NO_COUNTS = new long[0];
+
+  // Interned actor indices, sorted ascending; only the first `size` slots are in use.
+  private int[] actors = NO_ACTORS;
+  private long[] increments = NO_COUNTS;
+  private long[] decrements = NO_COUNTS;
+  private int size;
+  // Sum of all increments minus all decrements.
+  private long total;
+
+  public CountData() {
+    version = VersionMap.of();
+  }
+
+  public CountData(CountData other) {
+    version = new VersionMap(other.version);
+    actors = Arrays.copyOf(other.actors, other.size);
+    increments = Arrays.copyOf(other.increments, other.size);
+    decrements = Arrays.copyOf(other.decrements, other.size);
+    size = other.size;
+    total = other.total;
+  }
+
+  public VersionMap getVersion() {
+    return version;
+  }
+
+  /** Number of actors with a slot. */
+  public int size() {
+    return size;
+  }
+
+  public String actorAt(int position) {
+    return ActorTable.nameOf(actors[position]);
+  }
+
+  public long incrementsAt(int position) {
+    return increments[position];
+  }
+
+  public long decrementsAt(int position) {
+    return decrements[position];
+  }
+
+  public long total() {
+    return total;
+  }
+
+  /** Sets the totals of {@code actor}; used to rebuild a model that was serialized elsewhere. */
+  public void put(String actor, long increment, long decrement, int actorVersion) {
+    int index = ActorTable.intern(actor);
+    int position = slot(index);
+    set(position, increment, decrement);
+    version.putActor(index, actorVersion);
+  }
+
+  int actorIndexAt(int position) {
+    return actors[position];
+  }
+
+  /** Returns the position of {@code actor}, creating an empty slot if it has none. */
+  int slot(int actor) {
+    int pos = Arrays.binarySearch(actors, 0, size, actor);
+    if (pos >= 0) {
+      return pos;
+    }
+    int insertAt = -pos - 1;
+    if (size == actors.length) {
+      int capacity = Math.max(2, size * 2);
+      actors = Arrays.copyOf(actors, capacity);
+      increments = Arrays.copyOf(increments, capacity);
+      decrements = Arrays.copyOf(decrements, capacity);
+    }
+    System.arraycopy(actors, insertAt, actors, insertAt + 1, size - insertAt);
+    System.arraycopy(increments, insertAt, increments, insertAt + 1, size - insertAt);
+    System.arraycopy(decrements, insertAt, decrements, insertAt + 1, size - insertAt);
+    actors[insertAt] = actor;
+    increments[insertAt] = 0;
+    decrements[insertAt] = 0;
+    size++;
+    return insertAt;
+  }
+
+  /** Returns the position of {@code actor}, or a negative value if it has no slot. */
+  int find(int actor) {
+    return Arrays.binarySearch(actors, 0, size, actor);
+  }
+
+  void set(int position, long increment, long decrement) {
+    total += (increment - increments[position]) - (decrement - decrements[position]);
+    increments[position] = increment;
+    decrements[position] = decrement;
+  }
+}
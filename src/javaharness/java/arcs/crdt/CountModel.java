@@ -0,0 +1,3 @@
+package arcs.crdt;
+
+interface CountModel extends CRDTModel<CRDTCountTypeRecord> {}
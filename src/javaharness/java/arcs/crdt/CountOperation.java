@@ -0,0 +1,49 @@
+package arcs.crdt;
+
+/**
+ * Adds {@code increment} and subtracts {@code decrement} on behalf of {@code actor}, moving its
+ * version from {@code from} to {@code to}. Both amounts are non-negative.
+ */
+public class CountOperation implements CRDTOperation {
+  final String actor;
+  final long increment;
+  final long decrement;
+  final int from;
+  final int to;
+
+  public CountOperation(String actor, long increment, long decrement, int from, int to) {
+    this.actor = actor;
+    this.increment = increment;
+    this.decrement = decrement;
+    this.from = from;
+    this.to = to;
+  }
+
+  public static CountOperation increment(String actor, int from) {
+    return new CountOperation(actor, 1, 0, from, from + 1);
+  }
+
+  public static CountOperation decrement(String actor, int from) {
+    return new CountOperation(actor, 0, 1, from, from + 1);
+  }
+
+  public String getActor() {
+    return actor;
+  }
+
+  public long getIncrement() {
+    return increment;
+  }
+
+  public long getDecrement() {
+    return decrement;
+  }
+
+  public int getFrom() {
+    return from;
+  }
+
+  public int getTo() {
+    return to;
+  }
+}
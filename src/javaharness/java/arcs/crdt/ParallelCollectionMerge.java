@@ -0,0 +1,123 @@
+package arcs.crdt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Merges large {@link CollectionData} models on a {@link ForkJoinPool}.
+ *
+ * <p>Both value sets are split into index ranges that are merged in parallel with the same
+ * per-entry rules as {@link CRDTCollection#merge}; the results are then installed in one
+ * sequential pass, so the merged model is identical to the sequential one. Models smaller than the
+ * threshold, and deltas, are merged sequentially. JVM and Android only.
+ */
+public final class ParallelCollectionMerge {
+  public static final int DEFAULT_THRESHOLD = 16384;
+  // Number of entries each leaf task handles.
+  private static final int LEAF_SIZE = 2048;
+
+  private final ForkJoinPool pool;
+  private final int threshold;
+
+  public ParallelCollectionMerge() {
+    this(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+  }
+
+  public ParallelCollectionMerge(ForkJoinPool pool, int threshold) {
+    this.pool = pool;
+    this.threshold = threshold;
+  }
+
+  /** Merges {@code other} into {@code collection}; equivalent to {@code collection.merge(other)}. */
+  public <T extends Referenceable> MergeResult<?> merge(
+      CRDTCollection<T> collection, CRDTData other) {
+    if (!(other instanceof CollectionData)) {
+      return collection.merge(other);
+    }
+    @SuppressWarnings("unchecked")
+    CollectionData<T> otherModel = (CollectionData<T>) other;
+    CollectionData<T> model = collection.getData();
+    if (model.size() + otherModel.size() < threshold) {
+      return collection.merge(other);
+    }
+
+    List<VersionedValue<T>> otherValues = new ArrayList<>(otherModel.values.values());
+    List<VersionedValue<T>> ownValues = new ArrayList<>(model.values.values());
+    // Leaf tasks set disjoint indices; pool.invoke publishes their writes to this thread.
+    List<VersionedValue<T>> mergedOther =
+        new ArrayList<>(Collections.nCopies(otherValues.size(), (VersionedValue<T>) null));
+    // For each own entry: 0 if the other model has it, 1 if kept, 2 if removed.
+    byte[] ownOutcome = new byte[ownValues.size()];
+
+    pool.invoke(
+        new RangeTask(
+            0,
+            otherValues.size(),
+            index ->
+                mergedOther.set(
+                    index, CRDTCollection.mergeOtherItem(model, otherValues.get(index)))));
+    pool.invoke(
+        new RangeTask(
+            0,
+            ownValues.size(),
+            index -> {
+              VersionedValue<T> v1 = ownValues.get(index);
+              if (otherModel.values.containsKey(v1.value.getId())) {
+                ownOutcome[index] = 0;
+              } else {
+                ownOutcome[index] = CRDTCollection.keepsOwnItem(otherModel, v1) ? (byte) 1 : 2;
+              }
+            }));
+
+    Map<String, VersionedValue<T>> merged =
+        new HashMap<>((otherValues.size() + ownValues.size()) * 4 / 3 + 1);
+    for (VersionedValue<T> value : mergedOther) {
+      if (value != null) {
+        merged.put(value.value.getId(), value);
+      }
+    }
+    List<String> removedIds = new ArrayList<>();
+    for (int i = 0; i < ownOutcome.length; i++) {
+      VersionedValue<T> v1 = ownValues.get(i);
+      if (ownOutcome[i] == 1) {
+        merged.put(v1.value.getId(), v1);
+      } else if (ownOutcome[i] == 2) {
+        removedIds.add(v1.value.getId());
+      }
+    }
+    return collection.completeMerge(merged, removedIds, otherModel.version);
+  }
+
+  /** Runs {@code body} for every index in [from, to), splitting into leaf-sized ranges. */
+  private static class RangeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+    private final IntConsumer body;
+
+    RangeTask(int from, int to, IntConsumer body) {
+      this.from = from;
+      this.to = to;
+      this.body = body;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= LEAF_SIZE) {
+        for (int i = from; i < to; i++) {
+          body.accept(i);
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new RangeTask(from, middle, body), new RangeTask(middle, to, body));
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package arcs.crdt;
+
+/** The particle view of a counter: its current value. */
+public class RawCount implements CRDTConsumerType {
+  private final long value;
+
+  RawCount(long value) {
+    this.value = value;
+  }
+
+  public long get() {
+    return value;
+  }
+}
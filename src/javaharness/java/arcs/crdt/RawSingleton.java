@@ -0,0 +1,14 @@
+package arcs.crdt;
+
+/** The particle view of a singleton: a single value, or null if the singleton is cleared. */
+public class RawSingleton<T> implements CRDTConsumerType {
+  private final T value;
+
+  RawSingleton(T value) {
+    this.value = value;
+  }
+
+  public T get() {
+    return value;
+  }
+}
@@ -0,0 +1,3 @@
+package arcs.crdt;
+
+class SingletonChange<T extends Referenceable> extends CRDTChange<CRDTSingletonTypeRecord<T>> {}
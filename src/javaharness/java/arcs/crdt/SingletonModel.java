@@ -0,0 +1,3 @@
+package arcs.crdt;
+
+interface SingletonModel<T extends Referenceable> extends CRDTModel<CRDTSingletonTypeRecord<T>> {}
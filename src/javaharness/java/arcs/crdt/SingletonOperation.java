@@ -0,0 +1,29 @@
+package arcs.crdt;
+
+public class SingletonOperation<T> implements CRDTOperation {
+  public enum Type {
+    SET,
+    CLEAR
+  }
+
+  Type type;
+  // Only set for SET operations.
+  T value;
+  VersionMap clock;
+  String actor;
+
+  public SingletonOperation(Type type, T value, VersionMap clock, String actor) {
+    this.type = type;
+    this.value = value;
+    this.clock = clock;
+    this.actor = actor;
+  }
+
+  public static <T> SingletonOperation<T> set(T value, VersionMap clock, String actor) {
+    return new SingletonOperation<>(Type.SET, value, clock, actor);
+  }
+
+  public static <T> SingletonOperation<T> clear(VersionMap clock, String actor) {
+    return new SingletonOperation<>(Type.CLEAR, null, clock, actor);
+  }
+}
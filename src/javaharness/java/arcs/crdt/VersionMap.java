@@ -1,15 +1,38 @@
 package arcs.crdt;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Map;
 
-public class VersionMap extends HashMap<String, Integer> {
+/**
+ * A vector clock mapping actors to their latest counter values.
+ *
+ * <p>Actors are interned through {@link ActorTable} and entries are kept as two parallel primitive
+ * arrays sorted by actor index, so comparing and merging clocks does not box integers or hash
+ * actor names. A missing actor is equivalent to a counter of 0.
+ */
+public class VersionMap {
+  private static final int[] EMPTY = new int[0];
+
+  // Interned actor indices, sorted ascending; only the first `size` slots are in use.
+  private int[] actors = EMPTY;
+  // Counter for the actor at the same position in `actors`; always > 0.
+  private int[] clocks = EMPTY;
+  private int size;
+
   public VersionMap(Map<? extends String, ? extends Integer> map) {
-    super(map);
+    for (Map.Entry<? extends String, ? extends Integer> entry : map.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
   }
 
-  public VersionMap() {
-    super();
+  public VersionMap() {}
+
+  public VersionMap(VersionMap other) {
+    if (other.size > 0) {
+      actors = Arrays.copyOf(other.actors, other.size);
+      clocks = Arrays.copyOf(other.clocks, other.size);
+      size = other.size;
+    }
   }
 
   public static VersionMap of() {
@@ -27,4 +50,236 @@ public class VersionMap extends HashMap<String, Integer> {
     vm.put(k2, v2);
     return vm;
   }
+
+  /** Returns a new map holding, for every actor, the maximum of the two clocks. */
+  public static VersionMap merge(VersionMap version1, VersionMap version2) {
+    VersionMap merged = new VersionMap(version1);
+    merged.mergeWith(version2);
+    return merged;
+  }
+
+  public int getOrDefault(String actor, int defaultValue) {
+    int index = ActorTable.lookup(actor);
+    if (index < 0) {
+      return defaultValue;
+    }
+    int pos = Arrays.binarySearch(actors, 0, size, index);
+    return pos < 0 ? defaultValue : clocks[pos];
+  }
+
+  /** Like {@link #getOrDefault} with a default of 0, for an actor interned in {@link ActorTable}. */
+  int getActor(int index) {
+    int pos = Arrays.binarySearch(actors, 0, size, index);
+    return pos < 0 ? 0 : clocks[pos];
+  }
+
+  public boolean containsKey(String actor) {
+    return getOrDefault(actor, 0) > 0;
+  }
+
+  public void put(String actor, int clock) {
+    putActor(ActorTable.intern(actor), clock);
+  }
+
+  /** Like {@link #put}, for an actor already interned in {@link ActorTable}. */
+  void putActor(int index, int clock) {
+    int pos = Arrays.binarySearch(actors, 0, size, index);
+    if (pos >= 0) {
+      if (clock > 0) {
+        clocks[pos] = clock;
+      } else {
+        // Removing the entry keeps the invariant that all stored counters are positive.
+        System.arraycopy(actors, pos + 1, actors, pos, size - pos - 1);
+        System.arraycopy(clocks, pos + 1, clocks, pos, size - pos - 1);
+        size--;
+      }
+      return;
+    }
+    if (clock <= 0) {
+      return;
+    }
+    int insertAt = -pos - 1;
+    if (size == actors.length) {
+      int capacity = Math.max(2, size * 2);
+      actors = Arrays.copyOf(actors, capacity);
+      clocks = Arrays.copyOf(clocks, capacity);
+    }
+    System.arraycopy(actors, insertAt, actors, insertAt + 1, size - insertAt);
+    System.arraycopy(clocks, insertAt, clocks, insertAt + 1, size - insertAt);
+    actors[insertAt] = index;
+    clocks[insertAt] = clock;
+    size++;
+  }
+
+  /** Returns true if every counter in {@code other} is less than or equal to ours. */
+  public boolean dominates(VersionMap other) {
+    int i = 0;
+    for (int j = 0; j < other.size; j++) {
+      int actor = other.actors[j];
+      while (i < size && actors[i] < actor) {
+        i++;
+      }
+      if (i == size || actors[i] != actor || clocks[i] < other.clocks[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Folds {@code other} into this map, keeping the maximum counter for every actor. Only allocates
+   * when {@code other} introduces actors that do not fit in the current capacity.
+   */
+  public void mergeWith(VersionMap other) {
+    int added = 0;
+    int i = 0;
+    for (int j = 0; j < other.size; j++) {
+      int actor = other.actors[j];
+      while (i < size && actors[i] < actor) {
+        i++;
+      }
+      if (i < size && actors[i] == actor) {
+        if (clocks[i] < other.clocks[j]) {
+          clocks[i] = other.clocks[j];
+        }
+      } else {
+        added++;
+      }
+    }
+    if (added == 0) {
+      return;
+    }
+
+    // Merge both sorted runs from the back so that it can be done in place.
+    int newSize = size + added;
+    int[] newActors = actors;
+    int[] newClocks = clocks;
+    if (newSize > actors.length) {
+      newActors = Arrays.copyOf(actors, newSize);
+      newClocks = Arrays.copyOf(clocks, newSize);
+    }
+    i = size - 1;
+    int j = other.size - 1;
+    for (int k = newSize - 1; k >= 0; k--) {
+      if (j < 0 || (i >= 0 && actors[i] > other.actors[j])) {
+        newActors[k] = actors[i];
+        newClocks[k] = clocks[i];
+        i--;
+      } else if (i >= 0 && actors[i] == other.actors[j]) {
+        // Already merged by the first pass.
+        newActors[k] = actors[i];
+        newClocks[k] = clocks[i];
+        i--;
+        j--;
+      } else {
+        newActors[k] = other.actors[j];
+        newClocks[k] = other.clocks[j];
+        j--;
+      }
+    }
+    actors = newActors;
+    clocks = newClocks;
+    size = newSize;
+  }
+
+  /**
+   * Returns this map without the actors whose counters are dominated by {@code stable}, or this
+   * map itself if there are none. Never modifies this map, since clocks may be shared.
+   */
+  public VersionMap withoutDominated(VersionMap stable) {
+    int kept = 0;
+    int j = 0;
+    for (int i = 0; i < size; i++) {
+      while (j < stable.size && stable.actors[j] < actors[i]) {
+        j++;
+      }
+      if (j == stable.size || stable.actors[j] != actors[i] || stable.clocks[j] < clocks[i]) {
+        kept++;
+      }
+    }
+    if (kept == size) {
+      return this;
+    }
+    VersionMap result = new VersionMap();
+    if (kept > 0) {
+      result.actors = new int[kept];
+      result.clocks = new int[kept];
+      j = 0;
+      for (int i = 0; i < size; i++) {
+        while (j < stable.size && stable.actors[j] < actors[i]) {
+          j++;
+        }
+        if (j == stable.size || stable.actors[j] != actors[i] || stable.clocks[j] < clocks[i]) {
+          result.actors[result.size] = actors[i];
+          result.clocks[result.size] = clocks[i];
+          result.size++;
+        }
+      }
+    }
+    return result;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Returns the name of the actor at {@code position}, in {@code [0, size())}. */
+  public String actorAt(int position) {
+    return ActorTable.nameOf(actors[position]);
+  }
+
+  /** Returns the interned index of the actor at {@code position}, in {@code [0, size())}. */
+  int actorIndexAt(int position) {
+    return actors[position];
+  }
+
+  /** Returns the counter at {@code position}, in {@code [0, size())}. */
+  public int clockAt(int position) {
+    return clocks[position];
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof VersionMap)) {
+      return false;
+    }
+    VersionMap that = (VersionMap) other;
+    if (size != that.size) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (actors[i] != that.actors[i] || clocks[i] != that.clocks[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 1;
+    for (int i = 0; i < size; i++) {
+      hash = 31 * (31 * hash + actors[i]) + clocks[i];
+    }
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("{");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append(actorAt(i)).append('=').append(clocks[i]);
+    }
+    return builder.append('}').toString();
+  }
 }
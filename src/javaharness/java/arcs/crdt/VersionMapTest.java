@@ -0,0 +1,58 @@
+package arcs.crdt;
+
+public class VersionMapTest {
+  public static void testMissingActorIsZero() {
+    VersionMap version = VersionMap.of("me", 1);
+    assert version.getOrDefault("me", 0) == 1;
+    assert version.getOrDefault("never-seen-actor", 0) == 0;
+    assert version.getOrDefault("never-seen-actor", 7) == 7;
+    // A zero counter is the same as a missing one.
+    assert VersionMap.of("me", 1, "you", 0).equals(VersionMap.of("me", 1));
+    assert version.size() == 1;
+  }
+
+  public static void testEqualityIgnoresInsertionOrder() {
+    VersionMap version1 = VersionMap.of("me", 1, "you", 2);
+    VersionMap version2 = VersionMap.of("you", 2, "me", 1);
+    assert version1.equals(version2);
+    assert version1.hashCode() == version2.hashCode();
+    assert !version1.equals(VersionMap.of("you", 2, "me", 2));
+  }
+
+  public static void testDominates() {
+    VersionMap version = VersionMap.of("me", 2, "you", 1);
+    assert version.dominates(VersionMap.of());
+    assert version.dominates(VersionMap.of("me", 2));
+    assert version.dominates(VersionMap.of("me", 1, "you", 1));
+    assert !version.dominates(VersionMap.of("me", 3));
+    assert !version.dominates(VersionMap.of("them", 1));
+    assert !VersionMap.of().dominates(version);
+  }
+
+  public static void testMerge() {
+    VersionMap version1 = VersionMap.of("a", 1, "c", 5);
+    VersionMap version2 = VersionMap.of("b", 2, "c", 3);
+    VersionMap merged = VersionMap.merge(version1, version2);
+    VersionMap expected = VersionMap.of("a", 1, "b", 2);
+    expected.put("c", 5);
+    assert merged.equals(expected);
+    // Inputs are untouched.
+    assert version1.equals(VersionMap.of("a", 1, "c", 5));
+    assert version2.equals(VersionMap.of("b", 2, "c", 3));
+
+    version2.mergeWith(version1);
+    assert version2.equals(merged);
+    assert version2.dominates(version1) && merged.dominates(version2);
+  }
+
+  public static void testPutOverwritesAndRemoves() {
+    VersionMap version = VersionMap.of("me", 1, "you", 1);
+    version.put("me", 4);
+    assert version.getOrDefault("me", 0) == 4;
+    version.put("me", 0);
+    assert !version.containsKey("me");
+    assert version.equals(VersionMap.of("you", 1));
+  }
+
+  private VersionMapTest() {}
+}
@@ -69,7 +69,8 @@ public class PortableJsonJsImpl implements PortableJson {
 
   @Override
   public PortableJson getObject(String key) {
-    return new PortableJsonJsImpl(jsonObj.asPropertyMap().getAsAny(key));
+    Any value = jsonObj.asPropertyMap().getAsAny(key);
+    return value == null ? null : new PortableJsonJsImpl(value);
   }
 
   @Override
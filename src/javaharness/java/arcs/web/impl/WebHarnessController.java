@@ -8,7 +8,11 @@ import arcs.api.DeviceClient;
 import arcs.api.HarnessController;
 import arcs.api.PortableJsonParser;
 import arcs.demo.services.ClipboardService;
+import arcs.crdt.CRDTCollectionTest;
+import arcs.crdt.CRDTCountTest;
+import arcs.crdt.CRDTSingletonTest;
 import arcs.crdt.CollectionDataTest;
+import arcs.crdt.VersionMapTest;
 import arcs.demo.services.AlertService;
 import arcs.demo.services.ClipboardService;
 import arcs.demo.particles.ToastParticle;
@@ -191,6 +195,46 @@ public class WebHarnessController implements HarnessController {
         "testRejectRemoveNonexistent", CollectionDataTest::testRejectRemoveNonexistent);
     tests.put("testRejectRemoveTooOld", CollectionDataTest::testRejectRemoveTooOld);
     tests.put("testMergeModels", CollectionDataTest::testMergeModels);
+    tests.put("testMissingActorIsZero", VersionMapTest::testMissingActorIsZero);
+    tests.put(
+        "testEqualityIgnoresInsertionOrder", VersionMapTest::testEqualityIgnoresInsertionOrder);
+    tests.put("testDominates", VersionMapTest::testDominates);
+    tests.put("testMerge", VersionMapTest::testMerge);
+    tests.put("testPutOverwritesAndRemoves", VersionMapTest::testPutOverwritesAndRemoves);
+    tests.put(
+        "testMergeDeltaAppliesOnlyChanges", CRDTCollectionTest::testMergeDeltaAppliesOnlyChanges);
+    tests.put(
+        "testMergeDeltaMatchesFullMerge", CRDTCollectionTest::testMergeDeltaMatchesFullMerge);
+    tests.put(
+        "testMergeDeltaRejectsDeltaSinceUnseenVersion",
+        CRDTCollectionTest::testMergeDeltaRejectsDeltaSinceUnseenVersion);
+    tests.put(
+        "testAcknowledgedRemovalsAreNotShippedAgain",
+        CRDTCollectionTest::testAcknowledgedRemovalsAreNotShippedAgain);
+    tests.put(
+        "testApplyBatchMatchesSequentialOperations",
+        CRDTCollectionTest::testApplyBatchMatchesSequentialOperations);
+    tests.put(
+        "testCompactDoesNotChangeMergeResults",
+        CRDTCollectionTest::testCompactDoesNotChangeMergeResults);
+    tests.put(
+        "testOperationLogRebuildsAndCatchesUp",
+        CRDTCollectionTest::testOperationLogRebuildsAndCatchesUp);
+    tests.put(
+        "testOperationLogReplaysAcrossCompaction",
+        CRDTCollectionTest::testOperationLogReplaysAcrossCompaction);
+    tests.put("testSetValuesSingleActor", CRDTSingletonTest::testSetValuesSingleActor);
+    tests.put("testClearValues", CRDTSingletonTest::testClearValues);
+    tests.put(
+        "testAddAndClearMultipleActors", CRDTSingletonTest::testAddAndClearMultipleActors);
+    tests.put("testMergeTwoSingletons", CRDTSingletonTest::testMergeTwoSingletons);
+    tests.put("testCountInitiallyZero", CRDTCountTest::testInitiallyZero);
+    tests.put("testIncrementsFromActors", CRDTCountTest::testIncrementsFromActors);
+    tests.put("testRejectsDuplicatedOps", CRDTCountTest::testRejectsDuplicatedOps);
+    tests.put("testMultiIncrementAndDecrement", CRDTCountTest::testMultiIncrementAndDecrement);
+    tests.put("testMergeDifferentActors", CRDTCountTest::testMergeDifferentActors);
+    tests.put("testMergeSameActor", CRDTCountTest::testMergeSameActor);
+    tests.put("testMergeDivergentModelsThrows", CRDTCountTest::testMergeDivergentModelsThrows);
 
     return addTests("Test CRDTs", tests);
   }
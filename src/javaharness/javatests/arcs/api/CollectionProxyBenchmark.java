@@ -0,0 +1,91 @@
+package arcs.api;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for {@link CollectionProxy} on a synchronized model.
+ *
+ * <p>Run with: bazel run //javatests/arcs/api:api_benchmarks -- [jmh options]. Compare {@code
+ * toList} (the cached snapshot) with {@code storeThenToList} (every call rebuilds it)
+ * and {@code store} (the cost of the write alone). {@code synchronizeModel} rebuilds the model
+ * from a serialized one; its normalized allocation rate divided by the entity count is the model's
+ * cost per entity.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollectionProxyBenchmark {
+  @State(Scope.Thread)
+  public static class ProxyState {
+    @Param({"100", "10000"})
+    int entities;
+
+    CollectionProxy proxy;
+    int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+      proxy =
+          ProxyTestSupport.newCollectionProxy(
+              new ProxyTestSupport.RecordingPort().port, entities);
+      next = 0;
+    }
+
+    void storeNext() {
+      String id = "fresh" + next++;
+      proxy.store(ProxyTestSupport.entity(id, next), new String[] {"key-" + id}, "particle");
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class ModelState {
+    @Param({"100", "10000"})
+    int entities;
+
+    CollectionProxy proxy;
+    PortableJson model;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      proxy = ProxyTestSupport.newCollectionProxy(new ProxyTestSupport.RecordingPort().port, 0);
+      model = ProxyTestSupport.serializedModel(entities);
+    }
+  }
+
+  @Benchmark
+  public int synchronizeModel(ModelState state) {
+    state.proxy.synchronizeModel(0, state.model);
+    return state.proxy.size();
+  }
+
+  @Benchmark
+  public PortableJson toList(ProxyState state) {
+    return ProxyTestSupport.await(state.proxy.toList());
+  }
+
+  @Benchmark
+  public PortableJson storeThenToList(ProxyState state) {
+    state.storeNext();
+    return ProxyTestSupport.await(state.proxy.toList());
+  }
+
+  @Benchmark
+  public int store(ProxyState state) {
+    state.storeNext();
+    return state.proxy.size();
+  }
+}
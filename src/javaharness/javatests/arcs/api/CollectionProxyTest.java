@@ -0,0 +1,317 @@
+package arcs.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CollectionProxyTest {
+  private static final PortableJsonParser PARSER = ProxyTestSupport.PARSER;
+
+  @Test
+  public void toListIsCachedUntilTheModelChanges() {
+    ProxyTestSupport.RecordingPort port = new ProxyTestSupport.RecordingPort();
+    CollectionProxy proxy = ProxyTestSupport.newCollectionProxy(port.port, 3);
+    assert proxy.size() == 3;
+
+    PortableJson list = ProxyTestSupport.await(proxy.toList());
+    assert list.getLength() == 3;
+    PortableJson again = ProxyTestSupport.await(proxy.toList());
+    PortableJson syncModel = proxy.getModelForSync();
+    assert proxy.listSnapshotBuilds() == 1;
+    // Every reader shares the one snapshot.
+    assert again == list && syncModel == list;
+
+    proxy.store(ProxyTestSupport.entity("new", 7), new String[] {"newKey"}, "particle");
+    PortableJson afterStore = ProxyTestSupport.await(proxy.toList());
+    assert afterStore != list;
+    assert afterStore.getLength() == 4;
+    assert list.getLength() == 3 : "a snapshot handed out must not change";
+
+    proxy.remove("id0", new String[0], "particle");
+    PortableJson afterRemove = ProxyTestSupport.await(proxy.toList());
+    assert afterRemove.getLength() == 3;
+    for (int i = 0; i < afterRemove.getLength(); i++) {
+      assert !afterRemove.getObject(i).getString("id").equals("id0");
+    }
+    assert proxy.listSnapshotBuilds() == 3;
+  }
+
+  @Test
+  public void indexesFollowStoresRemovesAndClear() {
+    Schema schema =
+        new Schema(
+            Arrays.asList("Product"),
+            Arrays.asList("name", "num"),
+            Arrays.asList(
+                new Schema.PrimitiveField("Text"), new Schema.PrimitiveField("Number")));
+    CollectionProxy proxy =
+        ProxyTestSupport.newCollectionProxy(new ProxyTestSupport.RecordingPort().port, schema, 0);
+    proxy.store(ProxyTestSupport.entity("a", "name", "apple"), new String[] {"ka"}, "particle");
+    proxy.addIndex("name");
+    proxy.store(ProxyTestSupport.entity("b", "name", "apricot"), new String[] {"kb"}, "particle");
+    proxy.store(ProxyTestSupport.entity("c", "name", "banana"), new String[] {"kc"}, "particle");
+    proxy.store(ProxyTestSupport.entity("d", "name", "apple"), new String[] {"kd"}, "particle");
+
+    assert ids(proxy.query("name", "apple")).equals(Arrays.asList("a", "d"));
+    assert ids(proxy.queryPrefix("name", "ap")).equals(Arrays.asList("a", "d", "b"));
+    assert ids(proxy.query("name", "cherry")).isEmpty();
+
+    proxy.remove("a", new String[0], "particle");
+    assert ids(proxy.query("name", "apple")).equals(Arrays.asList("d"));
+
+    // Re-storing an entity moves it to its new value.
+    proxy.store(ProxyTestSupport.entity("c", "name", "avocado"), new String[] {"kc2"}, "particle");
+    assert ids(proxy.query("name", "banana")).isEmpty();
+    assert ids(proxy.queryPrefix("name", "a")).equals(Arrays.asList("d", "b", "c"));
+
+    proxy.clear("particle");
+    assert ids(proxy.queryPrefix("name", "")).isEmpty();
+
+    try {
+      proxy.addIndex("num");
+      assert false : "only Text and URL fields can be indexed";
+    } catch (IllegalArgumentException expected) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void unsyncedGetFetchesOneEntityAndCachesIt() {
+    ProxyTestSupport.RecordingPort port = new ProxyTestSupport.RecordingPort();
+    CollectionProxy proxy = ProxyTestSupport.newCollectionProxy(port.port, 0);
+    proxy.syncState = StorageProxy.SyncState.NONE;
+    proxy.listenerAttached = true;
+
+    proxy.get("a");
+    assert port.messages.equals(Arrays.asList("handleGetById"));
+    assert port.arguments.get(0)[1].equals("a");
+    PortableJson entity = ProxyTestSupport.entity("a", 1);
+    port.reply(entity);
+
+    assert ProxyTestSupport.await(proxy.get("a")) == entity;
+    assert proxy.getCacheHits() == 1;
+    assert port.messages.size() == 1;
+
+    // An update touching the entity evicts it.
+    PortableJson add = PARSER.emptyObject().put("value", ProxyTestSupport.entity("a", 2));
+    proxy.onUpdate(
+        PARSER.emptyObject().put("version", 1).put("add", PARSER.emptyArray().put(0, add)));
+    proxy.get("a");
+    assert port.messages.size() == 2;
+
+    // A reply that raced with an update is not cached.
+    proxy.onUpdate(PARSER.emptyObject().put("version", 2).put("add", PARSER.emptyArray()));
+    port.reply(entity);
+    proxy.get("a");
+    assert port.messages.size() == 3;
+    assert proxy.getCacheHits() == 1;
+  }
+
+  @Test
+  public void toListPagesThroughTheLocalModel() {
+    CollectionProxy proxy =
+        ProxyTestSupport.newCollectionProxy(new ProxyTestSupport.RecordingPort().port, 5);
+    List<String> seen = new ArrayList<>();
+    String token = null;
+    int pages = 0;
+    do {
+      PortableJson page = ProxyTestSupport.await(proxy.toList(2, token));
+      PortableJson values = page.getArray(CollectionProxy.PAGE_VALUES);
+      assert values.getLength() <= 2;
+      for (int i = 0; i < values.getLength(); i++) {
+        seen.add(values.getObject(i).getString("id"));
+      }
+      token =
+          page.hasKey(CollectionProxy.PAGE_CONTINUATION_TOKEN)
+              ? page.getString(CollectionProxy.PAGE_CONTINUATION_TOKEN)
+              : null;
+      pages++;
+    } while (token != null);
+    assert pages == 3;
+    assert seen.size() == 5 && seen.containsAll(Arrays.asList("id0", "id1", "id2", "id3", "id4"));
+  }
+
+  @Test
+  public void unsyncedForEachFetchesOnePageAtATime() {
+    ProxyTestSupport.RecordingPort port = new ProxyTestSupport.RecordingPort();
+    CollectionProxy proxy = ProxyTestSupport.newCollectionProxy(port.port, 0);
+    proxy.syncState = StorageProxy.SyncState.NONE;
+
+    List<String> seen = new ArrayList<>();
+    PortablePromise<Integer> done = proxy.forEach(2, entity -> seen.add(entity.getString("id")));
+    assert port.messages.equals(Arrays.asList("handleToListPage"));
+    assert port.arguments.get(0)[2] == null;
+
+    port.reply(page("a", "b").put(CollectionProxy.PAGE_CONTINUATION_TOKEN, "7:2"));
+    assert seen.equals(Arrays.asList("a", "b"));
+    assert port.messages.size() == 2;
+    assert port.arguments.get(1)[2].equals("7:2");
+
+    port.reply(page("c"));
+    assert seen.equals(Arrays.asList("a", "b", "c"));
+    assert port.messages.size() == 2;
+    assert ProxyTestSupport.await(done) == 3;
+  }
+
+  @Test
+  public void writeBehindCoalescesWritesIntoOneBatch() {
+    ProxyTestSupport.RecordingPort port = new ProxyTestSupport.RecordingPort();
+    ProxyTestSupport.Microtasks microtasks = new ProxyTestSupport.Microtasks();
+    CollectionProxy proxy = ProxyTestSupport.newCollectionProxy(port.port, null, 2, microtasks);
+    proxy.setWriteBehind(100);
+
+    proxy.store(ProxyTestSupport.entity("a", 1), new String[] {"ka1"}, "particle");
+    proxy.store(ProxyTestSupport.entity("a", 2), new String[] {"ka2"}, "particle");
+    proxy.store(ProxyTestSupport.entity("b", 1), new String[] {"kb"}, "particle");
+    proxy.remove("b", new String[0], "particle");
+    proxy.remove("id0", new String[0], "particle");
+    // Writes are applied locally right away.
+    assert proxy.size() == 2;
+    assert port.messages.isEmpty();
+
+    microtasks.runAll();
+    assert port.messages.equals(Arrays.asList("handleWriteBatch"));
+    PortableJson batch = (PortableJson) port.arguments.get(0)[2];
+    assert batch.getLength() == 3 : batch;
+    assert batch.getObject(0).getString("kind").equals("store");
+    assert batch.getObject(0).getObject("value").getObject("rawData").getInt("num") == 2;
+    assert batch.getObject(0).getArray("keys").asStringArray().equals(Arrays.asList("ka1", "ka2"));
+    assert batch.getObject(1).getString("kind").equals("remove");
+    assert batch.getObject(1).getString("id").equals("b");
+    assert batch.getObject(2).getString("id").equals("id0");
+    assert proxy.writeBatchesSent() == 1;
+  }
+
+  @Test
+  public void flushSendsAtOnceAndResolvesWhenAcknowledged() {
+    ProxyTestSupport.RecordingPort port = new ProxyTestSupport.RecordingPort();
+    ProxyTestSupport.Microtasks microtasks = new ProxyTestSupport.Microtasks();
+    CollectionProxy proxy = ProxyTestSupport.newCollectionProxy(port.port, null, 0, microtasks);
+    proxy.setWriteBehind(2);
+
+    proxy.store(ProxyTestSupport.entity("a", 1), new String[] {"ka"}, "particle");
+    proxy.store(ProxyTestSupport.entity("b", 1), new String[] {"kb"}, "particle");
+    // The batch is full.
+    assert port.messages.equals(Arrays.asList("handleWriteBatch"));
+    proxy.store(ProxyTestSupport.entity("c", 1), new String[] {"kc"}, "particle");
+
+    List<Boolean> durable = new ArrayList<>();
+    proxy.flush().then(unused -> durable.add(true));
+    assert port.messages.size() == 2;
+    assert durable.isEmpty();
+
+    // Acknowledging only the second batch is not enough.
+    port.reply(null);
+    assert durable.isEmpty();
+    port.reply(0, null);
+    assert durable.equals(Arrays.asList(true));
+
+    // Nothing pending: resolves (in the next microtask) without a message.
+    proxy.flush().then(unused -> durable.add(true));
+    microtasks.runAll();
+    assert durable.size() == 2;
+    assert port.messages.size() == 2;
+  }
+
+  @Test
+  public void storeAllAndRemoveAllSendOneMessageAndOneUpdate() {
+    ProxyTestSupport.RecordingPort port = new ProxyTestSupport.RecordingPort();
+    CollectionProxy proxy = ProxyTestSupport.newCollectionProxy(port.port, 2);
+    ProxyTestSupport.RecordingParticle particle = new ProxyTestSupport.RecordingParticle();
+    Collection handle = particle.register(proxy);
+    port.messages.clear();
+    port.arguments.clear();
+
+    PortableJson entities = PARSER.emptyArray();
+    for (int i = 0; i < 3; i++) {
+      entities.put(i, PARSER.emptyObject().put("rawData", PARSER.emptyObject().put("num", i)));
+    }
+    handle.storeAll(entities);
+    assert proxy.size() == 5;
+    assert port.messages.equals(Arrays.asList("handleWriteBatch"));
+    assert ((PortableJson) port.arguments.get(0)[2]).getLength() == 3;
+    assert particle.updates.size() == 1;
+    assert particle.updates.get(0).getArray("added").getLength() == 3;
+    assert particle.updates.get(0).getBool("originator");
+
+    PortableJson removed = PARSER.emptyArray().put(0, entities.getObject(1));
+    removed.put(1, ProxyTestSupport.entity("id0", 0));
+    handle.removeAll(removed);
+    assert proxy.size() == 3;
+    assert port.messages.size() == 2;
+    assert particle.updates.size() == 2;
+    assert particle.updates.get(1).getArray("removed").getLength() == 2;
+  }
+
+  @Test
+  public void coalescedUpdateThenRemoveReportsTheRemoval() {
+    ProxyTestSupport.RecordingPort port = new ProxyTestSupport.RecordingPort();
+    CollectionProxy proxy = ProxyTestSupport.newCollectionProxy(port.port, 2);
+    ProxyTestSupport.RecordingParticle particle = new ProxyTestSupport.RecordingParticle();
+    Collection handle =
+        new Collection(proxy, IdGenerator.newSession(), "handle", "particle", true, true);
+    handle.options.coalesceUpdates = true;
+    proxy.register(particle.particle, handle);
+
+    // Version 2 waits for version 1; both are then applied in one pass.
+    proxy.onUpdate(remoteRemove("id0", 2));
+    proxy.onUpdate(remoteAdd(ProxyTestSupport.entity("id0", 7), 1));
+    assert proxy.size() == 1;
+    assert particle.updates.size() == 1 : particle.updates;
+    PortableJson update = particle.updates.get(0);
+    assert !update.hasKey("added") || update.getArray("added").getLength() == 0 : update;
+    assert update.getArray("removed").getLength() == 1;
+    assert update.getArray("removed").getObject(0).getString("id").equals("id0");
+
+    // An entity created and removed in one pass is never reported.
+    proxy.onUpdate(remoteRemove("new", 4));
+    proxy.onUpdate(remoteAdd(ProxyTestSupport.entity("new", 3), 3));
+    assert proxy.size() == 1;
+    assert particle.updates.size() == 1 : particle.updates;
+  }
+
+  private static PortableJson remoteAdd(PortableJson entity, int version) {
+    PortableJson add =
+        PARSER
+            .emptyObject()
+            .put("value", entity)
+            .put("keys", PARSER.emptyArray().put(0, "k" + version));
+    return PARSER
+        .emptyObject()
+        .put("version", version)
+        .put("add", PARSER.emptyArray().put(0, add));
+  }
+
+  private static PortableJson remoteRemove(String id, int version) {
+    PortableJson remove =
+        PARSER
+            .emptyObject()
+            .put("value", PARSER.emptyObject().put("id", id))
+            .put("keys", PARSER.emptyArray().put(0, "k" + version));
+    return PARSER
+        .emptyObject()
+        .put("version", version)
+        .put("remove", PARSER.emptyArray().put(0, remove));
+  }
+
+  private static PortableJson page(String... ids) {
+    PortableJson values = PARSER.emptyArray();
+    for (String id : ids) {
+      values.put(values.getLength(), ProxyTestSupport.entity(id, 0));
+    }
+    return PARSER.emptyObject().put(CollectionProxy.PAGE_VALUES, values);
+  }
+
+  private static List<String> ids(PortablePromise<PortableJson> promise) {
+    PortableJson entities = ProxyTestSupport.await(promise);
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < entities.getLength(); i++) {
+      ids.add(entities.getObject(i).getString("id"));
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,248 @@
+package arcs.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/** A plain-Java PortableJson backed by a list or a map, for JVM tests and benchmarks. */
+class FakePortableJson implements PortableJson {
+  private final List<Object> array;
+  private final Map<String, Object> object;
+
+  private FakePortableJson(List<Object> array, Map<String, Object> object) {
+    this.array = array;
+    this.object = object;
+  }
+
+  static FakePortableJson emptyObject() {
+    return new FakePortableJson(null, new LinkedHashMap<>());
+  }
+
+  static FakePortableJson emptyArray() {
+    return new FakePortableJson(new ArrayList<>(), null);
+  }
+
+  @Override
+  public String getString(int index) {
+    return (String) array.get(index);
+  }
+
+  @Override
+  public String getString(String key) {
+    return (String) object.get(key);
+  }
+
+  @Override
+  public int getInt(int index) {
+    return ((Number) array.get(index)).intValue();
+  }
+
+  @Override
+  public int getInt(String key) {
+    return ((Number) object.get(key)).intValue();
+  }
+
+  @Override
+  public double getNumber(int index) {
+    return ((Number) array.get(index)).doubleValue();
+  }
+
+  @Override
+  public double getNumber(String key) {
+    return ((Number) object.get(key)).doubleValue();
+  }
+
+  @Override
+  public boolean getBool(int index) {
+    return (Boolean) array.get(index);
+  }
+
+  @Override
+  public boolean getBool(String key) {
+    return (Boolean) object.get(key);
+  }
+
+  @Override
+  public PortableJson getObject(int index) {
+    return (PortableJson) array.get(index);
+  }
+
+  @Override
+  public PortableJson getObject(String key) {
+    return (PortableJson) object.get(key);
+  }
+
+  @Override
+  public int getLength() {
+    return array.size();
+  }
+
+  @Override
+  public boolean hasKey(String key) {
+    return object.containsKey(key);
+  }
+
+  @Override
+  public void forEach(Consumer<String> callback) {
+    if (array != null) {
+      array.forEach(value -> callback.accept((String) value));
+    } else {
+      object.keySet().forEach(callback);
+    }
+  }
+
+  @Override
+  public List<String> keys() {
+    return new ArrayList<>(object.keySet());
+  }
+
+  @Override
+  public List<String> asStringArray() {
+    List<String> result = new ArrayList<>();
+    forEach(result::add);
+    return result;
+  }
+
+  @Override
+  public List<PortableJson> asObjectArray() {
+    List<PortableJson> result = new ArrayList<>();
+    array.forEach(value -> result.add((PortableJson) value));
+    return result;
+  }
+
+  @Override
+  public PortableJson put(String key, int num) {
+    object.put(key, num);
+    return this;
+  }
+
+  @Override
+  public PortableJson put(String key, double num) {
+    object.put(key, num);
+    return this;
+  }
+
+  @Override
+  public PortableJson put(String key, String value) {
+    object.put(key, value);
+    return this;
+  }
+
+  @Override
+  public PortableJson put(String key, boolean bool) {
+    object.put(key, bool);
+    return this;
+  }
+
+  @Override
+  public PortableJson put(String key, PortableJson obj) {
+    object.put(key, obj);
+    return this;
+  }
+
+  @Override
+  public PortableJson put(int index, int num) {
+    return set(index, num);
+  }
+
+  @Override
+  public PortableJson put(int index, double num) {
+    return set(index, num);
+  }
+
+  @Override
+  public PortableJson put(int index, String value) {
+    return set(index, value);
+  }
+
+  @Override
+  public PortableJson put(int index, boolean bool) {
+    return set(index, bool);
+  }
+
+  @Override
+  public PortableJson put(int index, PortableJson obj) {
+    return set(index, obj);
+  }
+
+  @Override
+  public PortableJson getArray(String key) {
+    return getObject(key);
+  }
+
+  @Override
+  public PortableJson getArray(int index) {
+    return getObject(index);
+  }
+
+  private PortableJson set(int index, Object value) {
+    while (array.size() <= index) {
+      array.add(null);
+    }
+    array.set(index, value);
+    return this;
+  }
+
+  @Override
+  public String toString() {
+    if (array != null) {
+      StringBuilder builder = new StringBuilder("[");
+      for (int i = 0; i < array.size(); i++) {
+        builder.append(i > 0 ? "," : "").append(stringify(array.get(i)));
+      }
+      return builder.append(']').toString();
+    }
+    StringBuilder builder = new StringBuilder("{");
+    boolean first = true;
+    for (Map.Entry<String, Object> entry : object.entrySet()) {
+      builder.append(first ? "" : ",").append(stringify(entry.getKey()));
+      builder.append(':').append(stringify(entry.getValue()));
+      first = false;
+    }
+    return builder.append('}').toString();
+  }
+
+  private static String stringify(Object value) {
+    return value instanceof String ? "\"" + value + "\"" : String.valueOf(value);
+  }
+
+  /** Parser counterpart; {@link #parse} is not supported. */
+  static class Parser implements PortableJsonParser {
+    @Override
+    public PortableJson parse(String json) {
+      throw new UnsupportedOperationException("FakePortableJson cannot parse");
+    }
+
+    @Override
+    public String stringify(PortableJson json) {
+      return json.toString();
+    }
+
+    @Override
+    public PortableJson emptyObject() {
+      return FakePortableJson.emptyObject();
+    }
+
+    @Override
+    public PortableJson emptyArray() {
+      return FakePortableJson.emptyArray();
+    }
+
+    @Override
+    public PortableJson fromStringArray(Collection<String> collection) {
+      PortableJson result = emptyArray();
+      collection.forEach(value -> result.put(result.getLength(), value));
+      return result;
+    }
+
+    @Override
+    public PortableJson fromObjectArray(Collection<PortableJson> collection) {
+      PortableJson result = emptyArray();
+      collection.forEach(value -> result.put(result.getLength(), value));
+      return result;
+    }
+  }
+}
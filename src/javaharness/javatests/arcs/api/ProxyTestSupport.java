@@ -0,0 +1,233 @@
+package arcs.api;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/** Builds storage proxies that run on the JVM without a PEC connection. */
+final class ProxyTestSupport {
+  static final PortableJsonParser PARSER = new FakePortableJson.Parser();
+
+  /** A port that records the messages it is asked to send, and drops them. */
+  static class RecordingPort {
+    final List<String> messages = new ArrayList<>();
+    // The arguments of each message, in the same order as `messages`.
+    final List<Object[]> arguments = new ArrayList<>();
+    final PECInnerPort port =
+        (PECInnerPort)
+            Proxy.newProxyInstance(
+                PECInnerPort.class.getClassLoader(),
+                new Class<?>[] {PECInnerPort.class},
+                (proxy, method, args) -> {
+                  messages.add(method.getName());
+                  arguments.add(args);
+                  return null;
+                });
+
+    /** Answers the last message through its callback. */
+    void reply(PortableJson data) {
+      reply(messages.size() - 1, data);
+    }
+
+    /** Answers message number {@code index} through its callback. */
+    @SuppressWarnings("unchecked")
+    void reply(int index, PortableJson data) {
+      for (Object arg : arguments.get(index)) {
+        if (arg instanceof Consumer) {
+          ((Consumer<PortableJson>) arg).accept(data);
+          return;
+        }
+      }
+      throw new AssertionError(messages.get(index) + " has no callback");
+    }
+  }
+
+  /** A particle that records the updates its handles receive. */
+  static class RecordingParticle {
+    final List<PortableJson> updates = new ArrayList<>();
+    final Particle particle =
+        (Particle)
+            Proxy.newProxyInstance(
+                Particle.class.getClassLoader(),
+                new Class<?>[] {Particle.class},
+                (proxy, method, args) -> {
+                  switch (method.getName()) {
+                    case "onHandleUpdate":
+                      updates.add((PortableJson) args[1]);
+                      return null;
+                    case "getId":
+                    case "getName":
+                    case "toString":
+                      return "particle";
+                    case "hashCode":
+                      return System.identityHashCode(proxy);
+                    case "equals":
+                      return proxy == args[0];
+                    default:
+                      return null;
+                  }
+                });
+
+    /** Registers a read-write Collection handle for this particle on {@code proxy}. */
+    Collection register(CollectionProxy proxy) {
+      Collection handle =
+          new Collection(proxy, IdGenerator.newSession(), "handle", "particle", true, true);
+      proxy.register(particle, handle);
+      return handle;
+    }
+  }
+
+  /** Runs promise callbacks synchronously, as soon as the promise is resolved. */
+  static final PortablePromiseFactory PROMISES =
+      new PortablePromiseFactory() {
+        @Override
+        public <T> PortablePromise<T> newPromise(
+            PortablePromise.PortablePromiseExecutor<T> executor) {
+          TestPromise<T> promise = new TestPromise<>();
+          executor.doInvoke(promise::resolve, error -> {});
+          return promise;
+        }
+
+        @Override
+        public <T> PortablePromise<T> newPromise(T value) {
+          TestPromise<T> promise = new TestPromise<>();
+          promise.resolve(value);
+          return promise;
+        }
+      };
+
+  static class TestPromise<T> implements PortablePromise<T> {
+    private final List<Consumer<T>> callbacks = new ArrayList<>();
+    private boolean resolved;
+    private T value;
+
+    void resolve(T value) {
+      this.value = value;
+      resolved = true;
+      for (Consumer<T> callback : callbacks) {
+        callback.accept(value);
+      }
+      callbacks.clear();
+    }
+
+    boolean isResolved() {
+      return resolved;
+    }
+
+    @Override
+    public PortablePromise<T> then(Consumer<T> onFulfillment) {
+      if (resolved) {
+        onFulfillment.accept(value);
+      } else {
+        callbacks.add(onFulfillment);
+      }
+      return this;
+    }
+  }
+
+  /** Defers resolving {@code newPromise(value)} promises until {@link #runAll}, like microtasks. */
+  static class Microtasks implements PortablePromiseFactory {
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    @Override
+    public <T> PortablePromise<T> newPromise(PortablePromise.PortablePromiseExecutor<T> executor) {
+      return PROMISES.newPromise(executor);
+    }
+
+    @Override
+    public <T> PortablePromise<T> newPromise(T value) {
+      TestPromise<T> promise = new TestPromise<>();
+      tasks.add(() -> promise.resolve(value));
+      return promise;
+    }
+
+    void runAll() {
+      while (runNext()) {}
+    }
+
+    /** Runs the oldest pending task; returns false if there was none. */
+    boolean runNext() {
+      if (tasks.isEmpty()) {
+        return false;
+      }
+      tasks.remove(0).run();
+      return true;
+    }
+  }
+
+  /** A synchronized collection proxy holding {@code size} entities with ids "id0", "id1", .... */
+  static CollectionProxy newCollectionProxy(PECInnerPort port, int size) {
+    return newCollectionProxy(port, null, size);
+  }
+
+  /** Like {@link #newCollectionProxy(PECInnerPort, int)}, for entities of {@code schema}. */
+  static CollectionProxy newCollectionProxy(PECInnerPort port, Schema schema, int size) {
+    return newCollectionProxy(port, schema, size, PROMISES);
+  }
+
+  static CollectionProxy newCollectionProxy(
+      PECInnerPort port, Schema schema, int size, PortablePromiseFactory promises) {
+    return newCollectionProxy(port, schema, size, promises, new StorageProxyScheduler(promises));
+  }
+
+  static CollectionProxy newCollectionProxy(
+      PECInnerPort port,
+      Schema schema,
+      int size,
+      PortablePromiseFactory promises,
+      StorageProxyScheduler scheduler) {
+    CollectionProxy proxy =
+        new CollectionProxy(
+            "!123:demo:proxy",
+            new CollectionType<>(new EntityType(schema)),
+            port,
+            "proxy",
+            PARSER,
+            promises,
+            scheduler);
+    // Synchronized at version 0, as for a store that was populated in one go.
+    proxy.synchronizeModel(0, serializedModel(size));
+    proxy.syncState = StorageProxy.SyncState.FULL;
+    return proxy;
+  }
+
+  /** The model a host sends on sync: entities "id0", "id1", ... with keys "key0", "key1", .... */
+  static PortableJson serializedModel(int size) {
+    PortableJson model = PARSER.emptyArray();
+    for (int i = 0; i < size; i++) {
+      model.put(
+          i,
+          PARSER
+              .emptyObject()
+              .put("id", "id" + i)
+              .put("value", entity("id" + i, i))
+              .put("keys", PARSER.emptyArray().put(0, "key" + i)));
+    }
+    return model;
+  }
+
+  static PortableJson entity(String id, int num) {
+    return PARSER
+        .emptyObject()
+        .put("id", id)
+        .put("rawData", PARSER.emptyObject().put("num", num));
+  }
+
+  static PortableJson entity(String id, String field, String value) {
+    return PARSER
+        .emptyObject()
+        .put("id", id)
+        .put("rawData", PARSER.emptyObject().put(field, value));
+  }
+
+  /** Returns the value of a promise that is already resolved. */
+  static <T> T await(PortablePromise<T> promise) {
+    assert ((TestPromise<T>) promise).isResolved() : "promise is still pending";
+    List<T> result = new ArrayList<>();
+    promise.then(result::add);
+    return result.get(0);
+  }
+
+  private ProxyTestSupport() {}
+}
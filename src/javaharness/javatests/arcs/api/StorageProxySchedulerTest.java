@@ -0,0 +1,439 @@
+package arcs.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class StorageProxySchedulerTest {
+  private final ProxyTestSupport.Microtasks microtasks = new ProxyTestSupport.Microtasks();
+  private final StorageProxyScheduler scheduler = new StorageProxyScheduler(microtasks);
+  // Events in delivery order, as "<handle>:<n>".
+  private final List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+  private final ExecutorService pool = Executors.newFixedThreadPool(4);
+  private CollectionProxy proxy;
+
+  @Before
+  public void setUp() {
+    proxy =
+        ProxyTestSupport.newCollectionProxy(
+            new ProxyTestSupport.RecordingPort().port, null, 0, microtasks);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  /** A handle that records the events delivered to it. */
+  private class RecordingHandle extends Handle {
+    final String name;
+
+    RecordingHandle(String name) {
+      super(proxy, IdGenerator.newSession(), name, name, true, true);
+      this.name = name;
+    }
+
+    @Override
+    void notify(String kind, Particle particle, PortableJson details) {
+      String event = name + ":" + details.getInt("n");
+      delivered.add(kind.equals("update") ? event : kind + " " + event);
+    }
+  }
+
+  /** An update from the host adding entity {@code id} at {@code version}. */
+  private static PortableJson remoteAdd(String id, int version) {
+    PortableJson add =
+        ProxyTestSupport.PARSER
+            .emptyObject()
+            .put("value", ProxyTestSupport.entity(id, version))
+            .put("keys", ProxyTestSupport.PARSER.emptyArray().put(0, "k" + version));
+    return ProxyTestSupport.PARSER
+        .emptyObject()
+        .put("version", version)
+        .put("add", ProxyTestSupport.PARSER.emptyArray().put(0, add));
+  }
+
+  private void awaitIdle() throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (scheduler.busy()) {
+      assert System.nanoTime() < deadline : "Scheduler did not become idle";
+      Thread.sleep(1);
+    }
+  }
+
+  private void enqueue(Particle particle, Handle handle, int from, int to) {
+    enqueue(particle, handle, "update", from, to);
+  }
+
+  private void enqueue(Particle particle, Handle handle, String kind, int from, int to) {
+    for (int n = from; n <= to; n++) {
+      PortableJson details = ProxyTestSupport.PARSER.emptyObject().put("n", n);
+      scheduler.enqueue(particle, handle, kind, details);
+    }
+  }
+
+  @Test
+  public void particlesTakeTurnsInArrivalOrder() {
+    scheduler.setBudget(/* eventsPerSlice= */ 2, /* maxEventsPerTask= */ 100, 0);
+    Particle a = new ProxyTestSupport.RecordingParticle().particle;
+    Particle b = new ProxyTestSupport.RecordingParticle().particle;
+    Particle c = new ProxyTestSupport.RecordingParticle().particle;
+    enqueue(a, new RecordingHandle("a"), 1, 5);
+    enqueue(b, new RecordingHandle("b"), 1, 2);
+    enqueue(c, new RecordingHandle("c"), 1, 1);
+
+    microtasks.runAll();
+    assert delivered.equals(Arrays.asList("a:1", "a:2", "b:1", "b:2", "c:1", "a:3", "a:4", "a:5"))
+        : delivered;
+    assert !scheduler.busy();
+  }
+
+  @Test
+  public void keepsEachHandlesOrderWithinAParticle() {
+    Particle particle = new ProxyTestSupport.RecordingParticle().particle;
+    RecordingHandle first = new RecordingHandle("x");
+    RecordingHandle second = new RecordingHandle("y");
+    enqueue(particle, first, 1, 1);
+    enqueue(particle, second, 1, 1);
+    enqueue(particle, first, 2, 2);
+
+    microtasks.runAll();
+    assert delivered.equals(Arrays.asList("x:1", "x:2", "y:1")) : delivered;
+  }
+
+  @Test
+  public void yieldsWhenTheTaskBudgetIsSpent() {
+    scheduler.setBudget(/* eventsPerSlice= */ 1, /* maxEventsPerTask= */ 3, 0);
+    Particle particle = new ProxyTestSupport.RecordingParticle().particle;
+    enqueue(particle, new RecordingHandle("a"), 1, 5);
+
+    List<Boolean> idle = new ArrayList<>();
+    scheduler.isIdle().then(unused -> idle.add(true));
+    assert microtasks.runNext();
+    assert delivered.size() == 3;
+    assert scheduler.busy() && idle.isEmpty();
+
+    microtasks.runAll();
+    assert delivered.size() == 5;
+    assert idle.equals(Arrays.asList(true));
+  }
+
+  @Test
+  public void lanesKeepEachParticlesOrder() throws InterruptedException {
+    scheduler.setBudget(/* eventsPerSlice= */ 3, /* maxEventsPerTask= */ 100, 0);
+    scheduler.setExecutor(pool::execute);
+    List<RecordingHandle> handles = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      Particle particle = new ProxyTestSupport.RecordingParticle().particle;
+      RecordingHandle handle = new RecordingHandle("p" + i);
+      handles.add(handle);
+      enqueue(particle, handle, 1, 100);
+    }
+
+    awaitIdle();
+    assert !microtasks.runNext();
+    assert delivered.size() == 300 : delivered.size();
+    for (RecordingHandle handle : handles) {
+      int last = 0;
+      for (String event : new ArrayList<>(delivered)) {
+        if (event.startsWith(handle.name + ":")) {
+          int n = Integer.parseInt(event.substring(handle.name.length() + 1));
+          assert n == last + 1 : delivered;
+          last = n;
+        }
+      }
+      assert last == 100;
+    }
+  }
+
+  @Test
+  public void lanesRunParticlesConcurrently() throws InterruptedException {
+    scheduler.setExecutor(pool::execute);
+    CountDownLatch released = new CountDownLatch(1);
+    Handle waiting =
+        new RecordingHandle("a") {
+          @Override
+          void notify(String kind, Particle particle, PortableJson details) {
+            try {
+              // Only returns if b's lane runs while a's callback is still blocked.
+              if (released.await(10, TimeUnit.SECONDS)) {
+                super.notify(kind, particle, details);
+              }
+            } catch (InterruptedException e) {
+              throw new AssertionError(e);
+            }
+          }
+        };
+    Handle releasing =
+        new RecordingHandle("b") {
+          @Override
+          void notify(String kind, Particle particle, PortableJson details) {
+            super.notify(kind, particle, details);
+            released.countDown();
+          }
+        };
+    enqueue(new ProxyTestSupport.RecordingParticle().particle, waiting, 1, 1);
+    enqueue(new ProxyTestSupport.RecordingParticle().particle, releasing, 1, 1);
+
+    awaitIdle();
+    assert delivered.equals(Arrays.asList("b:1", "a:1")) : delivered;
+  }
+
+  @Test
+  public void lanesAndThePortShareAProxy() throws InterruptedException {
+    scheduler.setExecutor(pool::execute);
+    // Promises that resolve synchronously, as the microtask queue is single-threaded.
+    CollectionProxy shared =
+        ProxyTestSupport.newCollectionProxy(
+            new ProxyTestSupport.RecordingPort().port,
+            null,
+            0,
+            ProxyTestSupport.PROMISES,
+            scheduler);
+    int writes = 300;
+    for (int p = 0; p < 2; p++) {
+      String prefix = "p" + p + "-";
+      Collection handle =
+          new Collection(shared, IdGenerator.newSession(), "h" + p, "particle" + p, true, true) {
+            @Override
+            public void notify(String kind, Particle particle, PortableJson details) {
+              if (kind.equals("sync")) {
+                for (int i = 0; i < writes; i++) {
+                  store(ProxyTestSupport.entity(prefix + i, i));
+                  // Reads race with the other lane's and the port's writes too.
+                  toList();
+                }
+              }
+            }
+          };
+      shared.register(new ProxyTestSupport.RecordingParticle().particle, handle);
+    }
+    // Meanwhile the port applies remote adds.
+    for (int i = 0; i < writes; i++) {
+      shared.onUpdate(remoteAdd("remote-" + i, i + 1));
+    }
+
+    awaitIdle();
+    assert shared.size() == 3 * writes : shared.size();
+    assert ProxyTestSupport.await(shared.toList()).getLength() == 3 * writes;
+  }
+
+  @Test
+  public void recordsLatenciesPerParticleAndKind() {
+    Particle a = new ProxyTestSupport.RecordingParticle().particle;
+    Particle b = new ProxyTestSupport.RecordingParticle().particle;
+    RecordingHandle handle = new RecordingHandle("a");
+    enqueue(a, handle, "sync", 1, 1);
+    enqueue(a, handle, "update", 2, 3);
+    enqueue(b, new RecordingHandle("b"), "desync", 1, 1);
+
+    microtasks.runAll();
+    SchedulerMetrics metrics = scheduler.getMetrics();
+    assert metrics.particles().equals(Arrays.asList(a, b));
+    assert metrics.kinds(a).equals(Arrays.asList("sync", "update"));
+    assert metrics.waitTime(a, "update").count() == 2;
+    assert metrics.callbackTime(a, "sync").count() == 1;
+    assert metrics.callbackTime(b, "desync").count() == 1;
+    assert metrics.waitTime(b, "update") == null;
+
+    scheduler.forget(a);
+    assert metrics.particles().equals(Arrays.asList(b));
+    assert metrics.waitTime(a, "update") == null && metrics.kinds(a).isEmpty();
+  }
+
+  @Test
+  public void histogramPercentilesAreBucketBounds() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assert histogram.percentileNanos(0.5) == 0;
+    histogram.record(0);
+    histogram.record(3);
+    histogram.record(5);
+    histogram.record(1000);
+
+    assert histogram.count() == 4 && histogram.totalNanos() == 1008;
+    assert histogram.percentileNanos(0.25) == 0;
+    // 3 is in [2, 4), 5 in [4, 8).
+    assert histogram.percentileNanos(0.5) == 3;
+    assert histogram.percentileNanos(0.75) == 7;
+    // Capped at the maximum rather than the top of [512, 1024).
+    assert histogram.percentileNanos(1) == 1000;
+  }
+
+  @Test
+  public void syncDropsPendingUpdatesAndSyncsOfItsHandle() {
+    Particle particle = new ProxyTestSupport.RecordingParticle().particle;
+    RecordingHandle handle = new RecordingHandle("a");
+    RecordingHandle other = new RecordingHandle("b");
+    enqueue(particle, handle, "update", 1, 2);
+    enqueue(particle, other, "update", 1, 1);
+    enqueue(particle, handle, "desync", 3, 3);
+    enqueue(particle, handle, "sync", 4, 4);
+    enqueue(particle, handle, "update", 5, 5);
+    enqueue(particle, handle, "sync", 6, 6);
+    enqueue(particle, handle, "update", 7, 7);
+
+    microtasks.runAll();
+    assert delivered.equals(Arrays.asList("desync a:3", "sync a:6", "a:7", "b:1")) : delivered;
+    assert scheduler.getMetrics().collapsedEvents() == 4;
+  }
+
+  @Test
+  public void collapsesBackToBackDesyncs() {
+    Particle particle = new ProxyTestSupport.RecordingParticle().particle;
+    RecordingHandle handle = new RecordingHandle("a");
+    enqueue(particle, handle, "desync", 1, 3);
+    enqueue(particle, handle, "update", 4, 4);
+    enqueue(particle, handle, "desync", 5, 5);
+    // A sync leaves the two remaining desyncs back to back, so only the first survives.
+    enqueue(particle, handle, "sync", 6, 6);
+
+    microtasks.runAll();
+    assert delivered.equals(Arrays.asList("desync a:1", "sync a:6")) : delivered;
+    assert !scheduler.busy();
+  }
+
+  @Test
+  public void dropOldestKeepsTheNewestEventsOfAFullHandle() {
+    scheduler.setQueueBound(3, StorageProxyScheduler.OverflowPolicy.DROP_OLDEST);
+    Particle particle = new ProxyTestSupport.RecordingParticle().particle;
+    RecordingHandle handle = new RecordingHandle("a");
+    RecordingHandle other = new RecordingHandle("b");
+    enqueue(particle, handle, 1, 5);
+    enqueue(particle, other, 1, 2);
+
+    SchedulerMetrics metrics = scheduler.getMetrics();
+    assert metrics.pendingEvents() == 5 && metrics.pendingEvents(particle) == 5;
+    assert metrics.peakHandleQueueDepth() == 3;
+    microtasks.runAll();
+    assert delivered.equals(Arrays.asList("a:3", "a:4", "a:5", "b:1", "b:2")) : delivered;
+    assert metrics.overflowEvents() == 2;
+    assert metrics.pendingEvents() == 0;
+  }
+
+  @Test
+  public void resyncReplacesAFullHandlesQueue() {
+    scheduler.setQueueBound(3, StorageProxyScheduler.OverflowPolicy.RESYNC);
+    proxy.syncState = StorageProxy.SyncState.FULL;
+    Particle particle = new ProxyTestSupport.RecordingParticle().particle;
+    RecordingHandle handle =
+        new RecordingHandle("a") {
+          @Override
+          void notify(String kind, Particle particle, PortableJson details) {
+            if (kind.equals("update")) {
+              super.notify(kind, particle, details);
+            } else {
+              // Resync events carry no test number.
+              delivered.add(kind + " " + name);
+            }
+          }
+        };
+    handle.options.notifyDesync = true;
+    enqueue(particle, handle, 1, 5);
+
+    microtasks.runAll();
+    assert delivered.equals(Arrays.asList("desync a", "sync a", "a:5")) : delivered;
+    assert scheduler.getMetrics().overflowEvents() == 4;
+  }
+
+  @Test
+  public void blockingPortWaitsForTheLane() throws InterruptedException {
+    scheduler.setExecutor(pool::execute);
+    scheduler.setProducerBlocker(new MonitorProducerBlocker());
+    scheduler.setQueueBound(2, StorageProxyScheduler.OverflowPolicy.BLOCK);
+    CollectionProxy shared =
+        ProxyTestSupport.newCollectionProxy(
+            new ProxyTestSupport.RecordingPort().port,
+            null,
+            0,
+            ProxyTestSupport.PROMISES,
+            scheduler);
+    CountDownLatch released = new CountDownLatch(1);
+    List<String> received = Collections.synchronizedList(new ArrayList<>());
+    Collection handle =
+        new Collection(shared, IdGenerator.newSession(), "a", "particle", true, true) {
+          @Override
+          public void notify(String kind, Particle particle, PortableJson details) {
+            try {
+              assert released.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+              throw new AssertionError(e);
+            }
+            received.add(kind);
+          }
+        };
+    // The initial sync occupies the lane in the blocked callback.
+    shared.register(new ProxyTestSupport.RecordingParticle().particle, handle);
+    Thread port =
+        new Thread(
+            () -> {
+              for (int i = 1; i <= 10; i++) {
+                shared.onUpdate(remoteAdd("e" + i, i));
+              }
+            });
+    port.start();
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (scheduler.getMetrics().pendingEvents() < 2) {
+      assert System.nanoTime() < deadline;
+      Thread.sleep(1);
+    }
+    port.join(50);
+    assert port.isAlive();
+    assert scheduler.getMetrics().pendingEvents() == 2;
+    // The port waits without the proxy's lock, so the proxy can still be read meanwhile.
+    assert shared.size() == 2;
+
+    released.countDown();
+    port.join(10_000);
+    awaitIdle();
+    assert received.size() == 11 && received.get(0).equals("sync") : received;
+    assert shared.size() == 10;
+    assert scheduler.getMetrics().overflowEvents() == 0;
+  }
+
+  @Test
+  public void laneWritingToItsOwnFullHandleDoesNotBlock() throws InterruptedException {
+    scheduler.setExecutor(pool::execute);
+    scheduler.setProducerBlocker(new MonitorProducerBlocker());
+    scheduler.setQueueBound(2, StorageProxyScheduler.OverflowPolicy.BLOCK);
+    CollectionProxy shared =
+        ProxyTestSupport.newCollectionProxy(
+            new ProxyTestSupport.RecordingPort().port,
+            null,
+            0,
+            ProxyTestSupport.PROMISES,
+            scheduler);
+    List<String> received = Collections.synchronizedList(new ArrayList<>());
+    Collection handle =
+        new Collection(shared, IdGenerator.newSession(), "a", "particle", true, true) {
+          @Override
+          public void notify(String kind, Particle particle, PortableJson details) {
+            if (received.isEmpty()) {
+              // Every store queues an update for this very handle, on this lane's thread.
+              for (int i = 0; i < 5; i++) {
+                store(ProxyTestSupport.entity("e" + i, i));
+              }
+            }
+            received.add(kind);
+          }
+        };
+    shared.register(new ProxyTestSupport.RecordingParticle().particle, handle);
+
+    awaitIdle();
+    assert shared.size() == 5;
+    // The overflow was resolved by a resync instead of waiting on the lane itself.
+    assert scheduler.getMetrics().overflowEvents() > 0;
+    assert received.get(received.size() - 1).equals("sync") : received;
+  }
+}
@@ -0,0 +1,79 @@
+package arcs.api;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class UpdateReorderBufferTest {
+  @Test
+  public void drainsOutOfOrderEventsInVersionOrder() {
+    UpdateReorderBuffer<String> buffer = new UpdateReorderBuffer<>(16);
+    buffer.skipTo(1);
+    assert buffer.insert(3, "three") == UpdateReorderBuffer.Result.BUFFERED;
+    assert buffer.insert(2, "two") == UpdateReorderBuffer.Result.BUFFERED;
+    assert buffer.pollNext() == null;
+    assert buffer.insert(1, "one") == UpdateReorderBuffer.Result.BUFFERED;
+    assert buffer.size() == 3;
+
+    assert buffer.pollNext().equals("one");
+    assert buffer.pollNext().equals("two");
+    assert buffer.pollNext().equals("three");
+    assert buffer.pollNext() == null;
+    assert buffer.isEmpty();
+    assert buffer.nextVersion() == 4;
+    assert buffer.insert(3, "stale") == UpdateReorderBuffer.Result.STALE;
+  }
+
+  @Test
+  public void growsAcrossWrapAround() {
+    UpdateReorderBuffer<Integer> buffer = new UpdateReorderBuffer<>(64);
+    buffer.skipTo(6);
+    // Spans more than the initial capacity, starting away from slot 0.
+    for (int version = 30; version >= 6; version--) {
+      assert buffer.insert(version, version) == UpdateReorderBuffer.Result.BUFFERED;
+    }
+    for (int version = 6; version <= 30; version++) {
+      assert buffer.pollNext() == version;
+    }
+    assert buffer.isEmpty();
+  }
+
+  @Test
+  public void dropsEventsBeyondTheCapAndRemembersThem() {
+    UpdateReorderBuffer<String> buffer = new UpdateReorderBuffer<>(8);
+    buffer.skipTo(1);
+    assert buffer.insert(9, "too far") == UpdateReorderBuffer.Result.OVERFLOW;
+    assert buffer.insert(8, "last") == UpdateReorderBuffer.Result.BUFFERED;
+    assert buffer.overflowCount() == 1;
+    assert buffer.missedAfter(8);
+
+    // A full sync past the dropped version catches up.
+    buffer.skipTo(10);
+    assert !buffer.missedAfter(9);
+    assert buffer.isEmpty();
+  }
+
+  @Test
+  public void skipToDropsOlderEventsAndCanMoveBack() {
+    UpdateReorderBuffer<String> buffer = new UpdateReorderBuffer<>(16);
+    // Not anchored yet: the first event decides where the buffer starts.
+    buffer.insert(5, "five");
+    buffer.insert(7, "seven");
+    assert buffer.nextVersion() == 5;
+
+    // A sync at version 2 moves back without losing anything.
+    buffer.skipTo(3);
+    assert buffer.size() == 2;
+    assert buffer.pollNext() == null;
+    assert buffer.peekLowest().equals("five");
+
+    // A sync at version 5 drops "five".
+    buffer.skipTo(6);
+    assert buffer.size() == 1;
+    assert buffer.pollNext() == null;
+    buffer.insert(6, "six");
+    assert buffer.pollNext().equals("six");
+    assert buffer.pollNext().equals("seven");
+  }
+}
@@ -0,0 +1,44 @@
+package arcs.crdt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ActorTableTest {
+  @Test
+  public void concurrentInternsAgreeOnIndices() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<int[]>> results = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        results.add(
+            pool.submit(
+                () -> {
+                  int[] indices = new int[1000];
+                  for (int i = 0; i < indices.length; i++) {
+                    indices[i] = ActorTable.intern("concurrent" + i);
+                    assert ActorTable.nameOf(indices[i]).equals("concurrent" + i);
+                  }
+                  return indices;
+                }));
+      }
+      int[] first = results.get(0).get();
+      for (Future<int[]> result : results) {
+        int[] indices = result.get();
+        for (int i = 0; i < indices.length; i++) {
+          assert indices[i] == first[i];
+          assert ActorTable.lookup("concurrent" + i) == first[i];
+        }
+      }
+      assert ActorTable.lookup("never interned") == -1;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
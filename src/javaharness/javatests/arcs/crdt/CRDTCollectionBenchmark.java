@@ -0,0 +1,161 @@
+package arcs.crdt;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for {@link CRDTCollection}.
+ *
+ * <p>Run with: bazel run //javatests/arcs/crdt:crdt_benchmarks -- [jmh options]. The binary
+ * always enables the GC profiler so that allocation rates are reported next to timings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CRDTCollectionBenchmark {
+  private static final ParallelCollectionMerge PARALLEL_MERGE =
+      new ParallelCollectionMerge(ForkJoinPool.commonPool(), /* threshold= */ 0);
+
+  static class Data implements Referenceable {
+    final String id;
+
+    Data(String id) {
+      this.id = id;
+    }
+
+    @Override
+    public String getId() {
+      return id;
+    }
+  }
+
+  /** A collection of {@code entries} items written round-robin by {@code actors} actors. */
+  static CRDTCollection<Data> newCollection(int entries, int actors, String actorPrefix) {
+    CRDTCollection<Data> collection = new CRDTCollection<>();
+    for (int i = 0; i < entries; i++) {
+      String actor = actorPrefix + (i % actors);
+      collection.applyOperation(
+          new CollectionOperation<>(
+              CollectionOperation.Type.ADD,
+              new Data("item" + i),
+              VersionMap.of(actor, collection.nextVersion(actor)),
+              actor));
+    }
+    return collection;
+  }
+
+  @State(Scope.Thread)
+  public static class OperationState {
+    @Param({"10", "1000", "100000"})
+    int entries;
+
+    @Param({"2", "64"})
+    int actors;
+
+    CRDTCollection<Data> collection;
+    Data[] items;
+    int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+      collection = newCollection(entries, actors, "actor");
+      items = new Data[entries];
+      for (int i = 0; i < entries; i++) {
+        items[i] = new Data("item" + i);
+      }
+      next = 0;
+    }
+
+    String nextActor() {
+      return "actor" + (next % actors);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class MergeState {
+    @Param({"10", "1000", "100000"})
+    int entries;
+
+    @Param({"2", "8", "64"})
+    int actors;
+
+    CRDTCollection<Data> collection;
+    CollectionData<Data> other;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+      // Half of the entries overlap between both sides, so merge exercises every branch.
+      collection = newCollection(entries, actors, "local");
+      CRDTCollection<Data> remote = newCollection(entries / 2, actors, "remote");
+      for (int i = entries; i < entries + entries / 2; i++) {
+        String actor = "remote" + (i % actors);
+        remote.applyOperation(
+            new CollectionOperation<>(
+                CollectionOperation.Type.ADD,
+                new Data("item" + i),
+                VersionMap.of(actor, remote.nextVersion(actor)),
+                actor));
+      }
+      other = remote.getData();
+    }
+  }
+
+  /** Re-adds an existing item; the collection size stays constant. */
+  @Benchmark
+  public boolean applyAdd(OperationState state) {
+    String actor = state.nextActor();
+    Data item = state.items[state.next++ % state.entries];
+    return state.collection.applyOperation(
+        new CollectionOperation<>(
+            CollectionOperation.Type.ADD,
+            item,
+            VersionMap.of(actor, state.collection.nextVersion(actor)),
+            actor));
+  }
+
+  /** Adds a fresh item and removes it again with a clock that dominates it. */
+  @Benchmark
+  public boolean applyAddRemove(OperationState state) {
+    String actor = state.nextActor();
+    Data item = new Data("fresh" + state.next++);
+    VersionMap clock = VersionMap.of(actor, state.collection.nextVersion(actor));
+    state.collection.applyOperation(
+        new CollectionOperation<>(CollectionOperation.Type.ADD, item, clock, actor));
+    return state.collection.applyOperation(
+        new CollectionOperation<>(CollectionOperation.Type.REMOVE, item, clock, actor));
+  }
+
+  /**
+   * Merges a remote model into the local one. After the first invocation of an iteration the
+   * local model already contains the remote entries, which is the steady state of a re-sync.
+   */
+  @Benchmark
+  public MergeResult<?> merge(MergeState state) {
+    return state.collection.merge(state.other);
+  }
+
+  /** Same as {@link #merge}, on the common fork/join pool with no size threshold. */
+  @Benchmark
+  public MergeResult<?> mergeParallel(MergeState state) {
+    return PARALLEL_MERGE.merge(state.collection, state.other);
+  }
+
+  @Benchmark
+  public CRDTConsumerType getParticleView(OperationState state) {
+    return state.collection.getParticleView();
+  }
+}
@@ -0,0 +1,164 @@
+package arcs.crdt;
+
+import arcs.crdt.CollectionDataTest.Data;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CollectionCodecTest {
+  private static final CollectionCodec.ValueCodec<Data> DATA_CODEC =
+      new CollectionCodec.ValueCodec<Data>() {
+        @Override
+        public int size(Data value) {
+          return value.id.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        @Override
+        public void write(Data value, ByteBuffer out) {
+          out.put(value.id.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public Data read(ByteBuffer in, int length) {
+          byte[] bytes = new byte[length];
+          in.get(bytes);
+          return new Data(new String(bytes, StandardCharsets.UTF_8));
+        }
+      };
+
+  private final CollectionCodec<Data> codec = new CollectionCodec<>(DATA_CODEC);
+
+  @Test
+  public void testVarints() {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    int[] values = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1};
+    for (int value : values) {
+      CollectionCodec.writeVarint(value, buffer);
+    }
+    buffer.flip();
+    for (int value : values) {
+      int start = buffer.position();
+      assert CollectionCodec.readVarint(buffer) == value;
+      assert buffer.position() - start == CollectionCodec.varintSize(value);
+    }
+  }
+
+  @Test
+  public void testOnlyReferencedActorsAreInterned() {
+    byte[] used = "codec-used".getBytes(StandardCharsets.UTF_8);
+    byte[] unused = "codec-unused".getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    CollectionCodec.writeVarint(2, buffer);
+    CollectionCodec.writeVarint(used.length, buffer);
+    buffer.put(used);
+    CollectionCodec.writeVarint(unused.length, buffer);
+    buffer.put(unused);
+    // A clock with one entry, for the first actor.
+    CollectionCodec.writeVarint(1, buffer);
+    CollectionCodec.writeVarint(0, buffer);
+    CollectionCodec.writeVarint(5, buffer);
+    buffer.flip();
+
+    assert codec.decodeVersionMap(buffer).equals(VersionMap.of("codec-used", 5));
+    assert ActorTable.lookup("codec-unused") == -1;
+  }
+
+  @Test
+  public void testRejectsLengthsBeyondTheInput() {
+    ByteBuffer names = ByteBuffer.allocate(16);
+    CollectionCodec.writeVarint(1, names);
+    CollectionCodec.writeVarint(Integer.MAX_VALUE, names);
+    names.flip();
+    assertRejected(names);
+
+    ByteBuffer entries = ByteBuffer.allocate(16);
+    CollectionCodec.writeVarint(0, entries);
+    CollectionCodec.writeVarint(1000, entries);
+    entries.flip();
+    assertRejected(entries);
+
+    ByteBuffer position = ByteBuffer.allocate(16);
+    CollectionCodec.writeVarint(0, position);
+    CollectionCodec.writeVarint(1, position);
+    CollectionCodec.writeVarint(3, position);
+    CollectionCodec.writeVarint(1, position);
+    position.flip();
+    assertRejected(position);
+  }
+
+  private void assertRejected(ByteBuffer in) {
+    try {
+      codec.decodeVersionMap(in);
+    } catch (IllegalArgumentException e) {
+      return;
+    }
+    throw new AssertionError("malformed input was accepted");
+  }
+
+  @Test
+  public void testVersionMapRoundTrip() {
+    VersionMap version = VersionMap.of("me", 3, "s\u00fcl", 300);
+    ByteBuffer buffer = ByteBuffer.allocate(codec.encodedSize(version));
+    codec.encode(version, buffer);
+    assert !buffer.hasRemaining();
+    buffer.flip();
+    assert codec.decodeVersionMap(buffer).equals(version);
+  }
+
+  @Test
+  public void testOperationRoundTrip() {
+    CollectionOperation<Data> add =
+        new CollectionOperation<>(
+            CollectionOperation.Type.ADD, new Data("one"), VersionMap.of("me", 1, "you", 2), "me");
+    CollectionOperation<Data> remove =
+        new CollectionOperation<>(
+            CollectionOperation.Type.REMOVE, new Data("two"), VersionMap.of("them", 5), "you");
+    ByteBuffer buffer = ByteBuffer.allocate(codec.encodedSize(add) + codec.encodedSize(remove));
+    codec.encode(add, buffer);
+    codec.encode(remove, buffer);
+    assert !buffer.hasRemaining();
+    buffer.flip();
+
+    CollectionOperation<Data> decodedAdd = codec.decodeOperation(buffer);
+    assert decodedAdd.type == CollectionOperation.Type.ADD;
+    assert decodedAdd.added.get().equals(add.added.get());
+    assert decodedAdd.clock.equals(add.clock);
+    assert decodedAdd.actor.equals("me");
+
+    CollectionOperation<Data> decodedRemove = codec.decodeOperation(buffer);
+    assert decodedRemove.type == CollectionOperation.Type.REMOVE;
+    assert decodedRemove.removed.get().equals(remove.removed.get());
+    assert decodedRemove.clock.equals(remove.clock);
+    assert decodedRemove.actor.equals("you");
+  }
+
+  @Test
+  public void testDataRoundTrip() {
+    CRDTCollection<Data> collection = new CRDTCollection<>();
+    for (int i = 0; i < 100; i++) {
+      String actor = "actor" + (i % 7);
+      collection.applyOperation(
+          new CollectionOperation<>(
+              CollectionOperation.Type.ADD,
+              new Data("item" + i),
+              VersionMap.of(actor, collection.nextVersion(actor)),
+              actor));
+    }
+    CollectionData<Data> data = collection.getData();
+    ByteBuffer buffer = ByteBuffer.allocate(codec.encodedSize(data));
+    codec.encode(data, buffer);
+    assert !buffer.hasRemaining();
+    buffer.flip();
+
+    CollectionData<Data> decoded = codec.decodeData(buffer);
+    assert decoded.version.equals(data.version);
+    assert decoded.keys().equals(data.keys());
+    for (String id : data.keys()) {
+      assert decoded.get(id).version.equals(data.get(id).version);
+      assert decoded.getValue(id).equals(data.getValue(id));
+    }
+  }
+}
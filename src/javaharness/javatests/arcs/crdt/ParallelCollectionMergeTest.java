@@ -0,0 +1,71 @@
+package arcs.crdt;
+
+import arcs.crdt.CollectionDataTest.Data;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ParallelCollectionMergeTest {
+  @Test
+  public void testMatchesSequentialMerge() {
+    CRDTCollection<Data> parallel = newLocal();
+    CRDTCollection<Data> sequential = newLocal();
+    parallel.setRemovalTracking(true);
+    sequential.setRemovalTracking(true);
+    CRDTCollection<Data> remote = new CRDTCollection<>();
+    remote.merge(sequential.getData());
+    // The remote removes some shared entries and adds its own.
+    for (int i = 0; i < 20000; i += 3) {
+      VersionMap clock = new VersionMap(remote.getData().version);
+      assert remote.applyOperation(
+          new CollectionOperation<>(
+              CollectionOperation.Type.REMOVE, new Data("item" + i), clock, "remote"));
+    }
+    for (int i = 0; i < 5000; i++) {
+      add(remote, "remote" + i, "remote" + (i % 5));
+    }
+    // The local side moves on too, so some entries are unknown to the remote.
+    for (int i = 0; i < 5000; i++) {
+      add(parallel, "late" + i, "local0");
+      add(sequential, "late" + i, "local0");
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      new ParallelCollectionMerge(pool, /* threshold= */ 0).merge(parallel, remote.getData());
+    } finally {
+      pool.shutdown();
+    }
+    sequential.merge(remote.getData());
+
+    CollectionData<Data> data1 = parallel.getData();
+    CollectionData<Data> data2 = sequential.getData();
+    assert data1.version.equals(data2.version);
+    assert data1.keys().equals(data2.keys());
+    for (String id : data1.keys()) {
+      assert data1.get(id).version.equals(data2.get(id).version) : id;
+      assert data1.getValue(id).equals(data2.getValue(id)) : id;
+    }
+    assert parallel.getDelta(data1.version).removed.equals(
+        sequential.getDelta(data2.version).removed);
+  }
+
+  private static CRDTCollection<Data> newLocal() {
+    CRDTCollection<Data> collection = new CRDTCollection<>();
+    for (int i = 0; i < 20000; i++) {
+      add(collection, "item" + i, "local" + (i % 16));
+    }
+    return collection;
+  }
+
+  private static void add(CRDTCollection<Data> collection, String id, String actor) {
+    assert collection.applyOperation(
+        new CollectionOperation<>(
+            CollectionOperation.Type.ADD,
+            new Data(id),
+            VersionMap.of(actor, collection.nextVersion(actor)),
+            actor));
+  }
+}
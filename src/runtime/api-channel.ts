@@ -482,6 +482,9 @@ export abstract class PECOuterPort extends APIPort {
   abstract onSynchronizeProxy(handle: StorageProviderBase, callback: number);
   abstract onHandleGet(handle: StorageProviderBase, callback: number);
   abstract onHandleToList(handle: StorageProviderBase, callback: number);
+  abstract onHandleWriteBatch(handle: StorageProviderBase, callback: number, data: CollectionWrite[]);
+  abstract onHandleGetById(handle: StorageProviderBase, callback: number, data: {id: string});
+  abstract onHandleToListPage(handle: StorageProviderBase, callback: number, data: {pageSize: number, continuationToken?: string});
   abstract onHandleSet(handle: StorageProviderBase, data: {}, particleId: string, barrier: string);
   abstract onHandleClear(handle: StorageProviderBase, particleId: string, barrier: string);
   abstract onHandleStore(handle: StorageProviderBase, callback: number, data: {value: {}, keys: string[]}, particleId: string);
@@ -524,6 +527,15 @@ export interface CursorNextValue {
   done: boolean;
 }
 
+// One entry of a HandleWriteBatch message; writes are applied in order.
+export interface CollectionWrite {
+  kind: 'store' | 'remove';
+  id?: string;
+  value?: {id: string};
+  keys: string[];
+  particleId?: string;
+}
+
 @AutoConstruct(PECOuterPort)
 export abstract class PECInnerPort extends APIPort {
   constructor(messagePort: MessagePort) {
@@ -550,6 +562,9 @@ export abstract class PECInnerPort extends APIPort {
   SynchronizeProxy(@Mapped handle: StorageProxy, @LocalMapped callback: Consumer<{version: number, model: SerializedModelEntry[]}>) {}
   HandleGet(@Mapped handle: StorageProxy, @LocalMapped callback: Consumer<{id: string}>) {}
   HandleToList(@Mapped handle: StorageProxy, @LocalMapped callback: Consumer<{id: string}[]>) {}
+  HandleWriteBatch(@Mapped handle: StorageProxy, @LocalMapped callback: Runnable, @Direct data: CollectionWrite[]) {}
+  HandleGetById(@Mapped handle: StorageProxy, @LocalMapped callback: Consumer<{id: string}>, @Direct data: {id: string}) {}
+  HandleToListPage(@Mapped handle: StorageProxy, @LocalMapped callback: Consumer<{values: {id: string}[], continuationToken?: string}>, @Direct data: {pageSize: number, continuationToken?: string}) {}
   HandleSet(@Mapped handle: StorageProxy, @Direct data: {}, @Direct particleId: string, @Direct barrier: string) {}
   HandleClear(@Mapped handle: StorageProxy, @Direct particleId: string, @Direct barrier: string) {}
   HandleStore(@Mapped handle: StorageProxy, @LocalMapped callback: Runnable, @Direct data: {}, @Direct particleId: string) {}
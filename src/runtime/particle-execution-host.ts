@@ -10,7 +10,7 @@
 
 import {assert} from '../platform/assert-web.js';
 
-import {PECOuterPort, APIPort} from './api-channel.js';
+import {PECOuterPort, APIPort, CollectionWrite} from './api-channel.js';
 import {reportSystemException, PropagatedException} from './arc-exceptions.js';
 import {Arc} from './arc.js';
 import {Runnable} from './hot.js';
@@ -163,8 +163,14 @@ export class ParticleExecutionHost {
   }
 }
 
+// How many toList snapshots onHandleToListPage keeps for paging; the oldest is dropped first.
+const MAX_LIST_SNAPSHOTS = 16;
+
 class PECOuterPortImpl extends PECOuterPort {
   arc: Arc;
+  // toList results still being paged through, by snapshot id, oldest first.
+  private readonly listSnapshots = new Map<number, {}[]>();
+  private nextListSnapshot = 0;
   constructor(port, arc: Arc) {
     super(port, arc);
     this.arc = arc;
@@ -196,6 +202,57 @@ class PECOuterPortImpl extends PECOuterPort {
     this.SimpleCallback(callback, data);
   }
 
+  async onHandleWriteBatch(handle: StorageProviderBase, callback: number, data: CollectionWrite[]) {
+    const collection = handle as CollectionStorageProvider;
+    for (const write of data) {
+      if (write.kind === 'store') {
+        await collection.store(write.value, write.keys, write.particleId);
+      } else {
+        await collection.remove(write.id, write.keys, write.particleId);
+      }
+    }
+    this.SimpleCallback(callback, {});
+  }
+
+  async onHandleGetById(handle: StorageProviderBase, callback: number, data: {id: string}) {
+    const entity = await (handle as CollectionStorageProvider).get(data.id);
+    this.SimpleCallback(callback, entity);
+  }
+
+  // The continuation token is "<snapshot>:<offset>". Later pages are cut from the list read for
+  // the first one, so paging reads the collection once and sees each item exactly once.
+  async onHandleToListPage(handle: StorageProviderBase, callback: number, data: {pageSize: number, continuationToken?: string}) {
+    let snapshot = -1;
+    let from = 0;
+    if (data.continuationToken) {
+      // A bare offset comes from a proxy that started paging locally.
+      const separator = data.continuationToken.lastIndexOf(':');
+      if (separator >= 0) {
+        snapshot = Number(data.continuationToken.substring(0, separator));
+      }
+      from = Number(data.continuationToken.substring(separator + 1));
+    }
+    let list = this.listSnapshots.get(snapshot);
+    if (list === undefined) {
+      // The first page, or a later one whose snapshot was dropped or never existed here; the
+      // latter continues at its offset in a fresh list.
+      list = await (handle as CollectionStorageProvider).toList();
+      snapshot = this.nextListSnapshot++;
+      this.listSnapshots.set(snapshot, list);
+      if (this.listSnapshots.size > MAX_LIST_SNAPSHOTS) {
+        this.listSnapshots.delete(this.listSnapshots.keys().next().value);
+      }
+    }
+    const to = Math.min(list.length, from + data.pageSize);
+    const page: {values: {}[], continuationToken?: string} = {values: list.slice(from, to)};
+    if (to < list.length) {
+      page.continuationToken = `${snapshot}:${to}`;
+    } else {
+      this.listSnapshots.delete(snapshot);
+    }
+    this.SimpleCallback(callback, page);
+  }
+
   onHandleSet(handle: StorageProviderBase, data: {}, particleId: string, barrier: string) {
     // TODO: Awaiting this promise causes tests to fail...
     floatingPromiseToAudit((handle as SingletonStorageProvider).set(data, particleId, barrier));
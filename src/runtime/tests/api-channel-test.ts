@@ -77,12 +77,15 @@ describe('API channel', function() {
       onGetBackingStore() {}
       onHandleClear() {}
       onHandleGet() {}
+      onHandleGetById() {}
       onHandleRemove() {}
       onHandleRemoveMultiple() {}
       onHandleSet() {}
       onHandleStore() {}
       onHandleStream() {}
       onHandleToList() {}
+      onHandleToListPage() {}
+      onHandleWriteBatch() {}
       onIdle() {}
       onIntializeProxy() {}
       onRender() {}